@@ -0,0 +1,151 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs {@link MicroService}s as actors on a shared work-stealing pool,
+ * instead of one thread blocked in {@link MessageBusImpl#awaitMessage} per
+ * micro-service.
+ * <p>
+ * A micro-service is scheduled on the pool when a message is added to its
+ * queue. It then handles at most one batch of waiting messages (see
+ * {@link MicroService#setMessageBatchSize(int)}) and yields the worker, and
+ * it is scheduled again if more messages are waiting. A micro-service is
+ * never scheduled twice at once, so its callbacks still run one at a time,
+ * in order, and see the effects of the previous ones, exactly like in its
+ * own thread. Thousands of micro-services thus share as many threads as
+ * there are cores.
+ * <p>
+ * Callbacks should not block: a callback waiting on a {@link Future}, or
+ * sending to a full queue with {@link OverflowPolicy#BLOCK}, holds a worker
+ * of the pool while it waits. The message queues must support non-blocking
+ * draining and activation listeners, which both built-in {@link Mailbox}es do.
+ */
+public final class ActorScheduler {
+
+    private final ForkJoinPool pool;
+    private final MessageBusImpl bus = MessageBusImpl.getInstance();
+    private final AtomicInteger running = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition allTerminated = lock.newCondition();
+
+    /**
+     * Creates a scheduler with one worker per available core.
+     */
+    public ActorScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism the number of workers of the pool.
+     */
+    public ActorScheduler(int parallelism) {
+        // FIFO scheduling, actors are never joined
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Registers {@code m} and schedules it: it is initialized on the pool and
+     * then handles its messages whenever it has some, until it terminates.
+     * <p>
+     * @param m the micro-service to run, not run by any other thread.
+     */
+    public void start(MicroService m) {
+        Actor actor = new Actor(m);
+        running.incrementAndGet();
+        bus.register(m);
+        bus.setActivationListener(m, actor::activate);
+        pool.execute(actor);
+    }
+
+    /**
+     * Waits until every micro-service started by this scheduler terminated.
+     * <p>
+     * @param timeout the maximal time to wait.
+     * @param unit    the {@link TimeUnit} of {@code timeout}.
+     * @return true if they all terminated, false if the time elapsed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (running.get() > 0) {
+                if (nanos <= 0)
+                    return false;
+                nanos = allTerminated.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the workers once the tasks already scheduled are done. Micro-services
+     * that did not terminate are not run anymore.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void terminated() {
+        if (running.decrementAndGet() == 0) {
+            lock.lock();
+            try {
+                allTerminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Runs a single micro-service, one batch per execution.
+     */
+    private final class Actor implements Runnable {
+        private final MicroService service;
+        // true while the actor is queued on the pool or running, the first run initializes
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private boolean started;
+
+        Actor(MicroService service) {
+            this.service = service;
+        }
+
+        void activate() {
+            if (!scheduled.get() && scheduled.compareAndSet(false, true))
+                pool.execute(this);
+        }
+
+        @Override
+        public void run() {
+            boolean alive;
+            try {
+                if (!started) {
+                    started = true;
+                    alive = service.startActor();
+                } else {
+                    alive = service.runActor();
+                }
+            } catch (RuntimeException | Error e) {
+                bus.unregister(service);
+                terminated();
+                throw e;
+            }
+            if (!alive) {
+                terminated();
+                return;
+            }
+            scheduled.set(false);
+            // a message added before the flag was cleared did not schedule the actor
+            if (bus.hasMessages(service))
+                activate();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package bgu.spl.mics;
+
+import java.io.IOException;
+
+/**
+ * The outcome of a {@link Future}, posted back to the micro-service that
+ * waits for it (see {@link MicroService#whenResolved(Future, Callback, Callback)}),
+ * so that its callback runs on the event loop of that micro-service like the
+ * callback of any other message.
+ */
+final class Continuation<T> implements Message {
+
+	private final T result;
+	// null if the future was resolved
+	private final Throwable failure;
+	private final Callback<? super T> onResult;
+	// null if failures are ignored
+	private final Callback<? super Throwable> onFailure;
+
+	Continuation(T result, Throwable failure, Callback<? super T> onResult, Callback<? super Throwable> onFailure) {
+		this.result = result;
+		this.failure = failure;
+		this.onResult = onResult;
+		this.onFailure = onFailure;
+	}
+
+	/**
+	 * Calls the callback matching the outcome of the future.
+	 */
+	void run() throws IOException {
+		if (failure == null)
+			onResult.call(result);
+		else if (onFailure != null)
+			onFailure.call(failure);
+	}
+}
@@ -0,0 +1,13 @@
+package bgu.spl.mics;
+
+/**
+ * A "Marker" interface extending {@link Message}. Control messages, such as a
+ * crash notice, are delivered on a separate high-priority lane of the
+ * receiver's message queue: they are never dropped or delayed by a full
+ * queue, and the receiver takes them before any waiting regular message.
+ * A planned termination notice should not be a control message, since its
+ * receiver would stop before handling the data queued ahead of it.
+ */
+public interface ControlMessage extends Message {
+
+}
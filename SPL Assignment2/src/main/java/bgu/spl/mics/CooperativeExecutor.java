@@ -0,0 +1,96 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs a fixed set of {@link MicroService}s in the calling thread, as a single
+ * cooperative event loop.
+ * <p>
+ * The micro-services are initialized in the order they were added. Then, on
+ * every round, the message queues are pumped in that same order, one batch
+ * per micro-service, until no message is waiting anywhere. Only then is the
+ * clock advanced, by calling {@link TickSource#advance()} on every added
+ * tick source, which run without their own timer. Nothing runs concurrently,
+ * so there are no thread hand-offs and no lock is ever contended, and the
+ * same configuration always handles the same messages in the same order.
+ * <p>
+ * The run is reproducible as long as the micro-services are: with the
+ * default {@link DispatchMode#ROUND_ROBIN} and with routing keys, events are
+ * dispatched deterministically, while {@link DispatchMode#POWER_OF_TWO_CHOICES}
+ * picks subscribers at random. Callbacks must not block, e.g. on
+ * {@link Future#get()}, since the micro-service that would resolve the future
+ * runs in the same thread.
+ */
+public final class CooperativeExecutor {
+
+    private final MessageBusImpl bus = MessageBusImpl.getInstance();
+    private final List<MicroService> services = new ArrayList<>();
+    private final List<TickSource> tickSources = new ArrayList<>();
+
+    /**
+     * Adds {@code m} to the micro-services run by this executor. If it is a
+     * {@link TickSource} its clock is driven by the executor.
+     * <p>
+     * @param m the micro-service to run, not run by any other thread.
+     */
+    public void add(MicroService m) {
+        services.add(m);
+        if (m instanceof TickSource) {
+            TickSource source = (TickSource) m;
+            source.driveExternally();
+            tickSources.add(source);
+        }
+    }
+
+    /**
+     * Runs the added micro-services until they all terminated, or until
+     * nothing is left to do: no message is waiting and every tick source
+     * ended. Micro-services that did not terminate by then are unregistered.
+     * <p>
+     * @return true if every micro-service terminated.
+     */
+    public boolean run() {
+        List<MicroService> running = new ArrayList<>(services.size());
+        for (MicroService m : services) {
+            bus.register(m);
+        }
+        for (MicroService m : services) {
+            if (m.startActor())
+                running.add(m);
+        }
+        List<TickSource> clocks = new ArrayList<>(tickSources);
+        while (!running.isEmpty()) {
+            pump(running);
+            if (clocks.isEmpty())
+                break;
+            clocks.removeIf(source -> !source.advance());
+        }
+        boolean terminated = running.isEmpty();
+        for (MicroService m : running) {
+            bus.unregister(m);
+        }
+        return terminated;
+    }
+
+    /**
+     * Handles the waiting messages of {@code running}, in a fixed order, until
+     * no message is waiting. Micro-services that terminated are removed.
+     */
+    private void pump(List<MicroService> running) {
+        boolean handled = true;
+        while (handled) {
+            handled = false;
+            for (Iterator<MicroService> it = running.iterator(); it.hasNext(); ) {
+                MicroService m = it.next();
+                // a tick source terminates from advance(), without a message
+                if (!bus.hasMessages(m) && !m.isTerminated())
+                    continue;
+                handled = true;
+                if (!m.runActor())
+                    it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package bgu.spl.mics;
+
+/**
+ * Decides which of the micro-services subscribed to an {@link Event} type
+ * receives the next event of that type
+ * (see {@link MessageBusImpl#setDispatchMode}).
+ */
+public enum DispatchMode {
+
+    /**
+     * The subscribers take turns, regardless of their load.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * The subscriber with the fewest waiting messages. Ties are broken in a
+     * round-robin fashion.
+     */
+    LEAST_LOADED,
+
+    /**
+     * The less loaded of two subscribers picked at random. Close to
+     * {@link #LEAST_LOADED} in balance while only looking at two queues.
+     */
+    POWER_OF_TWO_CHOICES
+}
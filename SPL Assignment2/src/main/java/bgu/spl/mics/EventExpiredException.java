@@ -0,0 +1,31 @@
+package bgu.spl.mics;
+
+/**
+ * Completes the {@link Future} of an event that was dropped before any
+ * micro-service handled it, either because its deadline passed while it was
+ * waiting in a message queue or because it outlived the future expiry policy
+ * of the {@link MessageBusImpl}.
+ */
+public class EventExpiredException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // not serialized, events are not required to be serializable
+    private final transient Event<?> event;
+
+    /**
+     * @param message the reason the event was dropped.
+     * @param event   the dropped event.
+     */
+    public EventExpiredException(String message, Event<?> event) {
+        super(message);
+        this.event = event;
+    }
+
+    /**
+     * @return the dropped event, null if this exception was deserialized.
+     */
+    public Event<?> getEvent() {
+        return event;
+    }
+}
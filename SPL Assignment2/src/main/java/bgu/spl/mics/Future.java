@@ -1,66 +1,84 @@
 package bgu.spl.mics;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A Future object represents a promised result - an object that will
  * eventually be resolved to hold a result of some operation. The class allows
  * Retrieving the result once it is available.
- * 
+ * <p>
+ * Besides blocking until the result is available, callbacks can be
+ * registered to run once the future is resolved, futures can be chained and
+ * combined, and a Future can be bridged to and from a {@link CompletableFuture}.
+ * The state is kept in a lock-free {@link CompletableFuture}, so resolving a
+ * Future never takes a monitor and wakes up every waiting thread.
+ * <p>
+ * A Future may also end without a result: when it is cancelled by the
+ * sender, or when its event expired before being handled (see
+ * {@link EventExpiredException}). Getting the result of such a Future throws.
+ *
  * Only private methods may be added to this class.
  * No public constructor is allowed except for the empty constructor.
  */
 public class Future<T> {
-	private T result;
-	private boolean isDone;
+	private final CompletableFuture<T> promise;
 
 
 	/**
 	 * This should be the only public constructor in this class.
 	 */
 	public Future() {
-		this.result = null;
-		this.isDone = false;
+		this(new CompletableFuture<>());
 	}
-	
+
+	private Future(CompletableFuture<T> promise) {
+		this.promise = promise;
+	}
+
 	/**
      * retrieves the result the Future object holds if it has been resolved.
      * This is a blocking method! It waits for the computation in case it has
      * not been completed.
      * <p>
      * @return return the result of type T if it is available, if not wait until it is available.
-     * 	       
+     * @throws CancellationException if this Future was cancelled.
+     * @throws EventExpiredException if the event of this Future expired.
      */
 	public T get() {
-		synchronized (this) {
-			while (!isDone) {
-				try {
-					this.wait();
-				}
-				catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-				}
-			}
-			return result;
+		try {
+			// join keeps waiting when interrupted and restores the interrupt status afterwards
+			return promise.join();
+		} catch (CompletionException e) {
+			throw failure(e.getCause());
 		}
 	}
 	/**
      * Resolves the result of this Future object.
+     * Only the first call has an effect, later results are ignored.
      */
-	public synchronized void resolve (T result) {
-		this.result = result;
-		this.isDone = true;
-		this.notify();
+	public void resolve (T result) {
+		promise.complete(result);
 	}
-	
+
 	/**
      * @return true if this object has been resolved, false otherwise
      */
 	public boolean isDone() {
 
-		return this.isDone;
+		return promise.isDone();
 	}
-	
+
 	/**
      * retrieves the result the Future object holds if it has been resolved,
      * This method is non-blocking, it has a limited amount of time determined
@@ -68,21 +86,194 @@ public class Future<T> {
      * <p>
      * @param timeout 	the maximal amount of time units to wait for the result.
      * @param unit		the {@link TimeUnit} time units to wait.
-     * @return return the result of type T if it is available, if not, 
+     * @return return the result of type T if it is available, if not,
      * 	       wait for {@code timeout} TimeUnits {@code unit}. If time has
      *         elapsed, return null.
+     * @throws CancellationException if this Future was cancelled.
+     * @throws EventExpiredException if the event of this Future expired.
      */
-	public synchronized T get(long timeout, TimeUnit unit) {
-		if (this.isDone)
-			return result;
-        try {
-			this.wait(unit.toMillis(timeout));
-		}
-         catch (InterruptedException e) {
+	public T get(long timeout, TimeUnit unit) {
+		try {
+			return promise.get(timeout, unit);
+		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
-        }
-		if (this.isDone)
-			return result;
-		return null;
-    }
+			return promise.getNow(null);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (ExecutionException e) {
+			throw failure(e.getCause());
+		}
+	}
+
+	/**
+	 * Cancels this Future if it is not resolved yet. If its event is still
+	 * waiting in a message queue it is removed, or skipped once it is taken,
+	 * so no micro-service handles it.
+	 * <p>
+	 * @return true if this call cancelled the Future.
+	 */
+	public boolean cancel() {
+		return promise.cancel(false);
+	}
+
+	/**
+	 * @return true if this Future was cancelled.
+	 */
+	public boolean isCancelled() {
+		return promise.isCancelled();
+	}
+
+	/**
+	 * Registers {@code callback} to be called with the result once this
+	 * Future is resolved. If it is resolved already, the callback is called
+	 * immediately by the calling thread, otherwise by the resolving thread:
+	 * usually the thread of another micro-service, in the middle of its own
+	 * callback. A micro-service should rather use
+	 * {@link MicroService#whenResolved(Future, Callback)}, which runs the
+	 * callback on its own event loop.
+	 * <p>
+	 * @param callback	the callback to call with the result.
+	 * @return this Future, so that callbacks can be chained.
+	 */
+	public Future<T> onComplete(Consumer<? super T> callback) {
+		promise.thenAccept(callback);
+		return this;
+	}
+
+	/**
+	 * Registers {@code callback} to be called if this Future is cancelled or
+	 * its event expires, with the {@link CancellationException} or the
+	 * {@link EventExpiredException}. Like {@link #onComplete(Consumer)}, the
+	 * callback is called by the thread ending this Future.
+	 * <p>
+	 * @param callback	the callback to call with the failure.
+	 * @return this Future, so that callbacks can be chained.
+	 */
+	public Future<T> onFailure(Consumer<? super Throwable> callback) {
+		promise.whenComplete((result, failure) -> {
+			if (failure != null)
+				callback.accept(failure instanceof CompletionException ? failure.getCause() : failure);
+		});
+		return this;
+	}
+
+	/**
+	 * The mapper is called by the thread resolving this Future, see
+	 * {@link #onComplete(Consumer)}.
+	 * <p>
+	 * @param <U>		the type of the mapped result.
+	 * @param mapper	maps the result of this Future.
+	 * @return a new Future, resolved with the mapped result once this Future is resolved.
+	 */
+	public <U> Future<U> thenApply(Function<? super T, ? extends U> mapper) {
+		return new Future<>(promise.thenApply(mapper));
+	}
+
+	/**
+	 * {@code next} is called by the thread resolving this Future, see
+	 * {@link #onComplete(Consumer)}.
+	 * <p>
+	 * @param <U>		the type of the result of the next step.
+	 * @param next		starts the next step from the result of this Future,
+	 *                  e.g. by sending another event.
+	 * @return a new Future, resolved with the result of the Future returned by
+	 *         {@code next} once both are resolved, with null if {@code next}
+	 *         returned null (an event nobody was subscribed to).
+	 */
+	public <U> Future<U> thenCompose(Function<? super T, Future<U>> next) {
+		return new Future<>(promise.thenCompose(result -> {
+			Future<U> step = next.apply(result);
+			return step == null ? CompletableFuture.completedFuture(null) : step.promise;
+		}));
+	}
+
+	/**
+	 * @return a {@link CompletableFuture} completed with the result of this
+	 *         Future. Completing the returned future does not resolve this one.
+	 */
+	public CompletableFuture<T> toCompletableFuture() {
+		return promise.thenApply(Function.identity());
+	}
+
+	/**
+	 * Ends this Future with {@code failure} instead of a result, unless it is
+	 * resolved already.
+	 */
+	void fail(Throwable failure) {
+		promise.completeExceptionally(failure);
+	}
+
+	/**
+	 * Runs {@code action} by the thread ending this Future, with its result or
+	 * with its failure (null if it was resolved).
+	 */
+	void onDone(BiConsumer<? super T, ? super Throwable> action) {
+		promise.whenComplete((result, failure) ->
+				action.accept(result, failure instanceof CompletionException ? failure.getCause() : failure));
+	}
+
+	/**
+	 * Runs {@code action} by the cancelling thread once this Future is cancelled.
+	 */
+	void onCancel(Runnable action) {
+		promise.whenComplete((result, failure) -> {
+			if (failure instanceof CancellationException)
+				action.run();
+		});
+	}
+
+	private static RuntimeException failure(Throwable cause) {
+		if (cause instanceof RuntimeException)
+			return (RuntimeException) cause;
+		return new IllegalStateException(cause);
+	}
+
+	/**
+	 * @param <T>		the type of the result.
+	 * @param stage		the stage to bridge.
+	 * @return a Future resolved with the result of {@code stage} once it completes.
+	 */
+	public static <T> Future<T> of(CompletionStage<T> stage) {
+		return new Future<>(stage.toCompletableFuture().thenApply(Function.identity()));
+	}
+
+	/**
+	 * @param <T>		the type of the results.
+	 * @param futures	the futures to combine, null entries (events nobody
+	 *                  was subscribed to) resolve to null.
+	 * @return a Future resolved with the results of {@code futures}, in the same
+	 *         order, once all of them are resolved.
+	 */
+	public static <T> Future<List<T>> allOf(List<Future<T>> futures) {
+		List<CompletableFuture<T>> promises = new ArrayList<>(futures.size());
+		for (Future<T> future : futures)
+			promises.add(future == null ? CompletableFuture.completedFuture(null) : future.promise);
+		CompletableFuture<Void> all = CompletableFuture.allOf(promises.toArray(new CompletableFuture<?>[0]));
+		return new Future<>(all.thenApply(ignored -> {
+			List<T> results = new ArrayList<>(promises.size());
+			for (CompletableFuture<T> promise : promises)
+				results.add(promise.join());
+			return results;
+		}));
+	}
+
+	/**
+	 * @param <T>		the type of the result.
+	 * @param futures	the futures to race, null entries are ignored.
+	 * @return a Future resolved with the result of the first of {@code futures}
+	 *         to be resolved, or resolved with null right away if there is no
+	 *         future to race, e.g. nobody was subscribed to any of the events.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Future<T> anyOf(List<? extends Future<? extends T>> futures) {
+		List<CompletableFuture<? extends T>> promises = new ArrayList<>(futures.size());
+		for (Future<? extends T> future : futures)
+			if (future != null)
+				promises.add(future.promise);
+		// racing no future at all would never complete
+		if (promises.isEmpty())
+			return new Future<>(CompletableFuture.completedFuture(null));
+		CompletableFuture<Object> any = CompletableFuture.anyOf(promises.toArray(new CompletableFuture<?>[0]));
+		return new Future<>(any.thenApply(result -> (T) result));
+	}
 }
@@ -0,0 +1,318 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the {@link Future} of every event that was sent and not completed yet.
+ * <p>
+ * Events are matched by identity, not by {@link Object#equals(Object)}, and an
+ * entry is removed as soon as its event is completed (for an event sent to
+ * all of its subscribers, once every copy was completed or discarded). Events that are never
+ * completed are evicted once they are older than the time-to-live, or when
+ * more than the maximal number of futures are pending (oldest first), so the
+ * registry stays bounded over long runs, and their futures fail with an
+ * {@link EventExpiredException}. Completed entries are unlinked from the
+ * registration order once they outnumber the pending ones. Eviction is
+ * amortized over {@link #register(Event, Future, long)} and completion calls,
+ * runs on one thread at a time, and no operation waits for a lock.
+ * <p>
+ * An event may also carry a deadline. Once it has passed, or once the future
+ * of the event is cancelled, the event is stale and is dropped when taken out
+ * of a message queue (see {@link #discardIfStale(Event)}).
+ */
+final class FutureRegistry {
+
+	// completed entries left in the registration order beyond twice the pending ones
+	private static final int COMPACT_SLACK = 64;
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	// entries in registration order, completed entries are unlinked at the head or by compact()
+	private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger ordered = new AtomicInteger();
+	// held by the single thread unlinking entries from order
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	private volatile long timeToLiveNanos;
+	private volatile int maxPending;
+
+	FutureRegistry(long timeToLive, TimeUnit unit, int maxPending) {
+		setPolicy(timeToLive, unit, maxPending);
+	}
+
+	/**
+	 * @param timeToLive the time after which a pending future is evicted.
+	 * @param unit       the {@link TimeUnit} of {@code timeToLive}.
+	 * @param maxPending the maximal number of pending futures.
+	 */
+	void setPolicy(long timeToLive, TimeUnit unit, int maxPending) {
+		if (timeToLive <= 0 || maxPending <= 0)
+			throw new IllegalArgumentException("time to live and max pending must be positive");
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Starts tracking {@code future} as the future of {@code e}.
+	 * @param timeoutNanos the time {@code e} may wait before being handled,
+	 *                     negative if it has no deadline.
+	 */
+	<T> void register(Event<T> e, Future<T> future, long timeoutNanos) {
+		track(new Entry(e, future, null, System.nanoTime(), timeoutNanos));
+	}
+
+	/**
+	 * Starts tracking {@code e}, which is about to be added to {@code copies}
+	 * message queues, as a single event completed by all of its handlers.
+	 * @param quorum the number of results the returned future waits for.
+	 * @return a future resolved with the first {@code quorum} results, in the
+	 *         order the handlers completed {@code e}.
+	 */
+	<T> Future<List<T>> registerGather(Event<T> e, int copies, int quorum, long timeoutNanos) {
+		Gather<T> gather = new Gather<>(e, copies, quorum);
+		track(new Entry(e, gather.future, gather, System.nanoTime(), timeoutNanos));
+		return gather.future;
+	}
+
+	private void track(Entry entry) {
+		Entry previous = entries.put(entry, entry);
+		// the same event object was sent again, only its latest future is tracked
+		if (previous != null)
+			previous.removed = true;
+		order.offer(entry);
+		ordered.incrementAndGet();
+		evict(entry.created);
+	}
+
+	/**
+	 * Resolves the future of {@code e} with {@code result}. An event sent to
+	 * all of its subscribers stays tracked until each of its copies was
+	 * completed or discarded. Events that are not tracked (never sent,
+	 * already completed or evicted) are ignored.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> void complete(Event<T> e, T result) {
+		Entry entry = entries.get(new Key(e));
+		if (entry == null)
+			return;
+		if (entry.gather != null) {
+			if (((Gather<T>) entry.gather).add(result))
+				remove(entry);
+		} else if (remove(entry)) {
+			((Future<T>) entry.future).resolve(result);
+		}
+	}
+
+	/**
+	 * Called when a copy of {@code e} was taken out of a message queue
+	 * without being handled.
+	 */
+	void discard(Event<?> e) {
+		Entry entry = entries.get(new Key(e));
+		if (entry != null && (entry.gather == null || entry.gather.discard()))
+			remove(entry);
+	}
+
+	/**
+	 * Called when a copy of {@code e} was dropped by a message queue, e.g. by
+	 * its overflow policy, so it will never be handled. The future of
+	 * {@code e} fails with an {@link EventExpiredException} right away, for an
+	 * event sent to all of its subscribers once the copies left cannot reach
+	 * the quorum.
+	 */
+	void drop(Event<?> e) {
+		Entry entry = entries.get(new Key(e));
+		if (entry == null)
+			return;
+		if (entry.gather != null) {
+			if (entry.gather.discard())
+				remove(entry);
+		} else if (remove(entry)) {
+			entry.future.fail(new EventExpiredException("the event was dropped by the message queue of its handler", e));
+		}
+	}
+
+	/**
+	 * Called when {@code e} is taken out of a message queue. If its deadline
+	 * has passed its future fails with an {@link EventExpiredException}, and if
+	 * its future was cancelled, or already resolved by a quorum of handlers,
+	 * there is nothing left to do.
+	 * @return true if {@code e} is stale and should not be handled.
+	 */
+	boolean discardIfStale(Event<?> e) {
+		Entry entry = entries.get(new Key(e));
+		if (entry == null)
+			return false;
+		if (entry.timed && !entry.future.isDone() && System.nanoTime() - entry.deadline > 0)
+			entry.future.fail(new EventExpiredException("the deadline of the event passed before it was handled", e));
+		// a future that is done already can only be cancelled, failed or gathered
+		if (!entry.future.isDone())
+			return false;
+		if (entry.gather == null || entry.gather.discard())
+			remove(entry);
+		return true;
+	}
+
+	/**
+	 * @return true if this call stopped tracking {@code entry}.
+	 */
+	private boolean remove(Entry entry) {
+		if (!entries.remove(entry, entry))
+			return false;
+		entry.removed = true;
+		if (ordered.get() > 2 * entries.size() + COMPACT_SLACK)
+			evict(System.nanoTime());
+		return true;
+	}
+
+	/**
+	 * @return the number of pending futures.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	private void evict(long now) {
+		// whoever holds the flag keeps evicting until the bound holds, the others need not wait
+		if (!evicting.compareAndSet(false, true))
+			return;
+		try {
+			Entry head;
+			while ((head = order.peek()) != null) {
+				boolean expired = now - head.created > timeToLiveNanos || entries.size() > maxPending;
+				if (!head.removed && !expired)
+					break;
+				order.poll();
+				ordered.decrementAndGet();
+				if (!head.removed && remove(head)) {
+					head.future.fail(new EventExpiredException("the event was not completed before its future expired", head.event));
+				}
+			}
+			if (ordered.get() > 2 * entries.size() + COMPACT_SLACK)
+				compact();
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	/**
+	 * Unlinks the completed entries queued behind a pending one, so they are
+	 * not retained until it is completed or expires. Only called by the
+	 * evicting thread, and amortized over the completions that left them.
+	 */
+	private void compact() {
+		for (Iterator<Entry> it = order.iterator(); it.hasNext(); ) {
+			if (it.next().removed) {
+				it.remove();
+				ordered.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Compares events by identity.
+	 */
+	private static class Key {
+		final Event<?> event;
+
+		Key(Event<?> event) {
+			this.event = event;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(event);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).event == event;
+		}
+	}
+
+	private static final class Entry extends Key {
+		final Future<?> future;
+		// null unless the event was sent to all of its subscribers
+		final Gather<?> gather;
+		final long created;
+		final boolean timed;
+		final long deadline;
+		volatile boolean removed;
+
+		Entry(Event<?> event, Future<?> future, Gather<?> gather, long created, long timeoutNanos) {
+			super(event);
+			this.future = future;
+			this.gather = gather;
+			this.created = created;
+			this.timed = timeoutNanos >= 0;
+			this.deadline = created + timeoutNanos;
+		}
+	}
+
+	/**
+	 * Collects the results of the copies of an event sent to all of its
+	 * subscribers without taking a lock. Its future fails with an
+	 * {@link EventExpiredException} as soon as too many copies were discarded
+	 * for the quorum to be reached.
+	 */
+	private static final class Gather<T> {
+		final Future<List<T>> future = new Future<>();
+		private final Event<T> event;
+		private final AtomicReferenceArray<T> results;
+		private final AtomicInteger arrived = new AtomicInteger();
+		private final AtomicInteger stored = new AtomicInteger();
+		private final AtomicInteger outstanding;
+
+		Gather(Event<T> event, int copies, int quorum) {
+			this.event = event;
+			this.results = new AtomicReferenceArray<>(quorum);
+			this.outstanding = new AtomicInteger(copies);
+		}
+
+		/**
+		 * @return true if every copy is accounted for.
+		 */
+		boolean add(T result) {
+			int index = arrived.getAndIncrement();
+			if (index < results.length()) {
+				results.set(index, result);
+				// the last result to be stored, not the last to arrive, resolves the future
+				if (stored.incrementAndGet() == results.length()) {
+					List<T> quorum = new ArrayList<>(results.length());
+					for (int i = 0; i < results.length(); i++)
+						quorum.add(results.get(i));
+					future.resolve(quorum);
+				}
+			}
+			return settle(outstanding.decrementAndGet());
+		}
+
+		/**
+		 * @return true if every copy is accounted for.
+		 */
+		boolean discard() {
+			return settle(outstanding.decrementAndGet());
+		}
+
+		/**
+		 * Fails the future once the results that arrived and the copies left
+		 * fall short of the quorum. A result counts from the moment it claims
+		 * its index, so the copy being added is never counted as missing, and
+		 * once no copy is left every result was stored.
+		 * @return true if every copy is accounted for.
+		 */
+		private boolean settle(int left) {
+			if (!future.isDone() && arrived.get() + left < results.length())
+				future.fail(new EventExpiredException("too few handlers completed the event to reach its quorum", event));
+			return left == 0;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An immutable consistent-hashing ring over a set of micro-services.
+ * <p>
+ * Every micro-service owns {@link #POINTS_PER_SERVICE} points on the ring and
+ * a key belongs to the owner of the first point at or after the key's hash.
+ * Adding or removing a micro-service only moves the keys of the arcs it
+ * gains or loses, every other key keeps its owner.
+ * <p>
+ * The points of a micro-service are derived from its name, so the same
+ * subscribers, subscribed in the same order, always build the same ring and
+ * runs are reproducible. Micro-services with equal names are told apart by
+ * their occurrence among the subscribers with that name, so each of them
+ * still gets a share of the keys. A ring rebuilt from a previous one keeps
+ * the occurrence of every micro-service still on it, and a new one takes the
+ * lowest occurrence free for its name, so removing one of several
+ * micro-services with the same name does not move the points of the others.
+ */
+final class HashRing {
+
+	static final int POINTS_PER_SERVICE = 64;
+
+	private final MicroService[] services;
+	// aligned with services, the occurrence of each one among the members with its name
+	private final int[] occurrences;
+	private final int[] points;
+	private final MicroService[] owners;
+
+	/**
+	 * @param services the members of the ring, the array is kept to tell which
+	 *                 snapshot the ring was built from.
+	 */
+	HashRing(MicroService[] services) {
+		this(services, null);
+	}
+
+	/**
+	 * @param services the members of the ring, the array is kept to tell which
+	 *                 snapshot the ring was built from.
+	 * @param previous the ring this one replaces, null if there is none.
+	 */
+	HashRing(MicroService[] services, HashRing previous) {
+		this.services = services;
+		this.occurrences = occurrences(services, previous);
+		long[] packed = new long[services.length * POINTS_PER_SERVICE];
+		for (int s = 0; s < services.length; s++) {
+			String name = services[s].getName();
+			int seed = mix(name.hashCode()) + occurrences[s] * 0x9e3779b9;
+			for (int p = 0; p < POINTS_PER_SERVICE; p++) {
+				int point = mix(seed * 31 + p);
+				// sort by point, remember the owner in the low bits
+				packed[s * POINTS_PER_SERVICE + p] = ((long) point << 32) | s;
+			}
+		}
+		Arrays.sort(packed);
+		this.points = new int[packed.length];
+		this.owners = new MicroService[packed.length];
+		for (int i = 0; i < packed.length; i++) {
+			points[i] = (int) (packed[i] >> 32);
+			owners[i] = services[(int) packed[i]];
+		}
+	}
+
+	/**
+	 * @return the occurrence of each of {@code services} among those with its
+	 *         name: the one it had on {@code previous}, or else the lowest one
+	 *         free, in subscription order.
+	 */
+	private static int[] occurrences(MicroService[] services, HashRing previous) {
+		Map<MicroService, Integer> kept = new IdentityHashMap<>();
+		if (previous != null) {
+			for (int s = 0; s < previous.services.length; s++)
+				kept.put(previous.services[s], previous.occurrences[s]);
+		}
+		int[] occurrences = new int[services.length];
+		Map<String, BitSet> taken = new HashMap<>();
+		for (int s = 0; s < services.length; s++) {
+			Integer occurrence = kept.get(services[s]);
+			occurrences[s] = occurrence == null ? -1 : occurrence;
+			if (occurrence != null)
+				taken.computeIfAbsent(services[s].getName(), k -> new BitSet()).set(occurrence);
+		}
+		for (int s = 0; s < services.length; s++) {
+			if (occurrences[s] >= 0)
+				continue;
+			BitSet used = taken.computeIfAbsent(services[s].getName(), k -> new BitSet());
+			occurrences[s] = used.nextClearBit(0);
+			used.set(occurrences[s]);
+		}
+		return occurrences;
+	}
+
+	/**
+	 * @return true if the ring was built from {@code snapshot}.
+	 */
+	boolean isBuiltFrom(MicroService[] snapshot) {
+		return services == snapshot;
+	}
+
+	/**
+	 * @return the micro-service owning {@code key}, null if the ring is empty.
+	 */
+	MicroService owner(Object key) {
+		if (points.length == 0)
+			return null;
+		int hash = mix(key == null ? 0 : key.hashCode());
+		int index = Arrays.binarySearch(points, hash);
+		if (index < 0)
+			index = -index - 1;
+		return owners[index == points.length ? 0 : index];
+	}
+
+	/**
+	 * Spreads the bits of {@code h} (the MurmurHash3 finalizer).
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
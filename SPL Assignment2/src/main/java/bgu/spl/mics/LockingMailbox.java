@@ -0,0 +1,355 @@
+package bgu.spl.mics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The default {@link Mailbox}, an {@link ArrayDeque} guarded by a single lock.
+ * <p>
+ * A batch of messages is enqueued under a single lock acquisition and wakes
+ * the owner at most once. Every {@link OverflowPolicy} is supported and the
+ * capacity may be changed at any time.
+ */
+final class LockingMailbox implements Mailbox {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final ArrayDeque<Message> messages = new ArrayDeque<>();
+	private final ArrayDeque<Message> control = new ArrayDeque<>();
+	private int capacity;
+	private OverflowPolicy policy;
+	private int highWaterMark;
+	// whether control holds a message, readable without taking the lock
+	private volatile boolean controlWaiting;
+	// the number of waiting messages, readable without taking the lock
+	private volatile int count;
+	private boolean closed;
+	private volatile Runnable activationListener;
+	private volatile Consumer<? super Message> discardListener;
+	// the messages discarded while holding the lock, reported once it is released
+	private final ArrayList<Message> discarded = new ArrayList<>();
+
+	LockingMailbox(int capacity, OverflowPolicy policy) {
+		configure(capacity, policy);
+	}
+
+	@Override
+	public void configure(int capacity, OverflowPolicy policy) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("mailbox capacity must be positive");
+		lock.lock();
+		try {
+			this.capacity = capacity;
+			this.policy = policy;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(Message message) {
+		boolean added;
+		List<Message> dropped;
+		lock.lock();
+		try {
+			added = enqueue(message);
+			if (added)
+				notEmpty.signal();
+		} finally {
+			dropped = takeDiscarded();
+			lock.unlock();
+		}
+		report(dropped);
+		if (added)
+			activate();
+	}
+
+	@Override
+	public void putControl(Message message) {
+		boolean added;
+		lock.lock();
+		try {
+			added = !closed;
+			if (added) {
+				control.addLast(message);
+				controlWaiting = true;
+				count++;
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (added)
+			activate();
+		else
+			report(Collections.singletonList(message));
+	}
+
+	@Override
+	public void putAll(Collection<? extends Message> batch) {
+		if (batch.isEmpty())
+			return;
+		boolean added = false;
+		List<Message> dropped;
+		lock.lock();
+		try {
+			for (Message message : batch)
+				added |= enqueue(message);
+			if (added)
+				notEmpty.signal();
+		} finally {
+			dropped = takeDiscarded();
+			lock.unlock();
+		}
+		report(dropped);
+		if (added)
+			activate();
+	}
+
+	@Override
+	public Message take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (messages.isEmpty() && control.isEmpty())
+				notEmpty.await();
+			count--;
+			if (!control.isEmpty())
+				return pollControlLocked();
+			Message message = messages.pollFirst();
+			notFull.signal();
+			return message;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(List<? super Message> buffer, int max) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (messages.isEmpty() && control.isEmpty())
+				notEmpty.await();
+			return drain(buffer, max);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Message pollControl() {
+		if (!controlWaiting)
+			return null;
+		lock.lock();
+		try {
+			if (control.isEmpty())
+				return null;
+			count--;
+			return pollControlLocked();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainAvailable(List<? super Message> buffer, int max) {
+		lock.lock();
+		try {
+			return drain(buffer, max);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void setActivationListener(Runnable listener) {
+		this.activationListener = listener;
+	}
+
+	@Override
+	public void setDiscardListener(Consumer<? super Message> listener) {
+		this.discardListener = listener;
+	}
+
+	/**
+	 * Moves up to {@code max} messages to {@code buffer} while holding the lock.
+	 */
+	private int drain(List<? super Message> buffer, int max) {
+		int drained = 0;
+		while (drained < max && !control.isEmpty()) {
+			buffer.add(pollControlLocked());
+			drained++;
+		}
+		boolean freed = false;
+		while (drained < max && !messages.isEmpty()) {
+			buffer.add(messages.pollFirst());
+			drained++;
+			freed = true;
+		}
+		count -= drained;
+		if (freed)
+			notFull.signalAll();
+		return drained;
+	}
+
+	@Override
+	public boolean remove(Message message) {
+		lock.lock();
+		try {
+			Iterator<Message> waiting = messages.iterator();
+			while (waiting.hasNext()) {
+				if (waiting.next() == message) {
+					waiting.remove();
+					count--;
+					notFull.signal();
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		List<Message> dropped;
+		lock.lock();
+		try {
+			closed = true;
+			discarded.addAll(control);
+			discarded.addAll(messages);
+			messages.clear();
+			control.clear();
+			controlWaiting = false;
+			count = 0;
+			notFull.signalAll();
+		} finally {
+			dropped = takeDiscarded();
+			lock.unlock();
+		}
+		report(dropped);
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public int highWaterMark() {
+		lock.lock();
+		try {
+			return highWaterMark;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds {@code message} while holding the lock.
+	 * @return true if the mailbox gained a message the owner should be woken for.
+	 */
+	private boolean enqueue(Message message) {
+		while (!closed && messages.size() >= capacity) {
+			switch (policy) {
+				case DROP_NEWEST:
+					discarded.add(message);
+					return false;
+				case DROP_OLDEST:
+					discarded.add(messages.pollFirst());
+					count--;
+					break;
+				case COALESCE:
+					if (message instanceof Broadcast && replaceLatest(message))
+						return true;
+					awaitNotFull();
+					break;
+				default:
+					awaitNotFull();
+			}
+		}
+		if (closed) {
+			discarded.add(message);
+			return false;
+		}
+		messages.addLast(message);
+		count++;
+		if (messages.size() > highWaterMark)
+			highWaterMark = messages.size();
+		return true;
+	}
+
+	/**
+	 * Replaces the most recent waiting message of the same type as {@code message}.
+	 * @return true if such a message was found.
+	 */
+	private boolean replaceLatest(Message message) {
+		Iterator<Message> waiting = messages.descendingIterator();
+		while (waiting.hasNext()) {
+			Message latest = waiting.next();
+			if (latest.getClass() == message.getClass()) {
+				waiting.remove();
+				messages.addLast(message);
+				discarded.add(latest);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void activate() {
+		Runnable listener = activationListener;
+		if (listener != null)
+			listener.run();
+	}
+
+	/**
+	 * Removes the first control message while holding the lock.
+	 */
+	private Message pollControlLocked() {
+		Message message = control.pollFirst();
+		if (control.isEmpty())
+			controlWaiting = false;
+		return message;
+	}
+
+	/**
+	 * Called while holding the lock.
+	 * @return the messages discarded since the last call, null if there are none.
+	 */
+	private List<Message> takeDiscarded() {
+		if (discarded.isEmpty())
+			return null;
+		List<Message> taken = new ArrayList<>(discarded);
+		discarded.clear();
+		return taken;
+	}
+
+	/**
+	 * Runs the discard listener on {@code dropped}, once the lock is released:
+	 * it may fail futures, which runs their continuations.
+	 */
+	private void report(List<Message> dropped) {
+		Consumer<? super Message> listener = discardListener;
+		if (listener == null || dropped == null)
+			return;
+		for (Message message : dropped)
+			listener.accept(message);
+	}
+
+	private void awaitNotFull() {
+		// the owner may be waiting, or not scheduled, for messages already added by this batch
+		notEmpty.signal();
+		activate();
+		notFull.awaitUninterruptibly();
+	}
+}
@@ -0,0 +1,169 @@
+package bgu.spl.mics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The message queue allocated by the {@link MessageBusImpl} to a single
+ * registered {@link MicroService}.
+ * <p>
+ * Many senders may put messages concurrently while only the owning
+ * micro-service takes them. Implementations are created by the
+ * {@link MailboxFactory} installed with {@link MessageBusImpl#setMailboxFactory}.
+ */
+public interface Mailbox {
+
+    /**
+     * Changes the capacity and the overflow policy of the mailbox. Messages
+     * already waiting are kept even if there are more than {@code capacity}.
+     * <p>
+     * @param capacity the maximal number of waiting messages.
+     * @param policy   what a sender does when the mailbox is full.
+     * @throws IllegalArgumentException if the implementation does not support
+     *                                  {@code capacity} or {@code policy}.
+     */
+    void configure(int capacity, OverflowPolicy policy);
+
+    /**
+     * Adds {@code message} to the end of the mailbox, applying the overflow
+     * policy if the mailbox is full.
+     * <p>
+     * @param message the message to add.
+     */
+    void put(Message message);
+
+    /**
+     * Adds {@code message} to the high-priority lane of the mailbox. Messages
+     * of this lane are taken before any regular message, in the order they
+     * were put, and are never subject to the capacity or the overflow policy.
+     * <p>
+     * @param message the {@link ControlMessage} to add.
+     */
+    void putControl(Message message);
+
+    /**
+     * Adds all of {@code batch} to the end of the mailbox, in order, applying
+     * the overflow policy to each message that does not fit. The owner is
+     * woken at most once for the whole batch.
+     * <p>
+     * @param batch the messages to add.
+     */
+    void putAll(Collection<? extends Message> batch);
+
+    /**
+     * Removes the first message of the high-priority lane or, if it is empty,
+     * the first regular message of the mailbox, waiting until one is available.
+     * Only the owning micro-service may call this method.
+     * <p>
+     * @return the first message of the mailbox.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    Message take() throws InterruptedException;
+
+    /**
+     * Removes up to {@code max} messages, in the order {@link #take()} would
+     * return them, and adds them to {@code buffer}. Waits until at least one
+     * message is available but never for more. Only the owning micro-service
+     * may call this method. The default implementation takes a single message.
+     * <p>
+     * @param buffer the list the messages are added to.
+     * @param max    the maximal number of messages to remove, positive.
+     * @return the number of messages added to {@code buffer}.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    default int drainTo(List<? super Message> buffer, int max) throws InterruptedException {
+        buffer.add(take());
+        return 1;
+    }
+
+    /**
+     * Removes the first message of the high-priority lane, if there is one.
+     * Called by the owner between the callbacks of a batch, so it must be
+     * cheap while the lane is empty. Only the owning micro-service may call
+     * this method. The default implementation returns null, control messages
+     * then wait for the next batch.
+     * <p>
+     * @return the first control message, null if there is none.
+     */
+    default Message pollControl() {
+        return null;
+    }
+
+    /**
+     * Like {@link #drainTo(List, int)}, but never waits: removes only the
+     * messages that are already available. Only the owning micro-service, or
+     * the scheduler running it, may call this method.
+     * <p>
+     * @param buffer the list the messages are added to.
+     * @param max    the maximal number of messages to remove, positive.
+     * @return the number of messages added to {@code buffer}, possibly zero.
+     * @throws UnsupportedOperationException by default, the mailbox cannot be
+     *                                       used with an {@link ActorScheduler}.
+     */
+    default int drainAvailable(List<? super Message> buffer, int max) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support non-blocking draining");
+    }
+
+    /**
+     * Sets a listener run by the sending thread after each message added to
+     * the mailbox, used by an {@link ActorScheduler} to schedule the owner.
+     * The listener must be cheap and must not block.
+     * <p>
+     * @param listener the listener to run, null to remove it.
+     * @throws UnsupportedOperationException by default, the mailbox cannot be
+     *                                       used with an {@link ActorScheduler}.
+     */
+    default void setActivationListener(Runnable listener) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support activation listeners");
+    }
+
+    /**
+     * Sets a listener run with every message the mailbox discards without
+     * handing it out: dropped or replaced by the overflow policy, put after
+     * the mailbox was closed, or still waiting when it was closed. Used by
+     * the {@link MessageBusImpl} to fail the futures of dropped events right
+     * away and to count the messages in flight (see
+     * {@link MessageBusImpl#trackQuiescence()}). The listener is run by the
+     * thread that caused the discard, once it holds no lock of the mailbox.
+     * <p>
+     * @param listener the listener to run, null to remove it.
+     * @throws UnsupportedOperationException by default, the mailbox cannot be
+     *                                       used while quiescence is tracked.
+     */
+    default void setDiscardListener(Consumer<? super Message> listener) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support discard listeners");
+    }
+
+    /**
+     * Removes {@code message} if it is still waiting in the mailbox, e.g. an
+     * event whose {@link Future} was cancelled. May be called by any thread.
+     * The default implementation removes nothing, the bus then drops the
+     * message when the owner takes it.
+     * <p>
+     * @param message the message to remove, compared by identity.
+     * @return true if the message was removed.
+     */
+    default boolean remove(Message message) {
+        return false;
+    }
+
+    /**
+     * Releases blocked senders. Messages put after the mailbox was closed are
+     * discarded.
+     */
+    void close();
+
+    /**
+     * Must be cheap and non-blocking, senders read it to balance events
+     * between subscribers (see {@link DispatchMode}).
+     * <p>
+     * @return the number of messages waiting in the mailbox.
+     */
+    int size();
+
+    /**
+     * @return the largest number of messages that waited in the mailbox at once.
+     */
+    int highWaterMark();
+}
@@ -0,0 +1,16 @@
+package bgu.spl.mics;
+
+/**
+ * Creates the {@link Mailbox} of every micro-service registered to the
+ * {@link MessageBusImpl} (see {@link MessageBusImpl#setMailboxFactory}).
+ */
+public interface MailboxFactory {
+
+    /**
+     * @param capacity the maximal number of waiting messages,
+     *                 {@link Integer#MAX_VALUE} when the mailbox should be unbounded.
+     * @param policy   what a sender does when the mailbox is full.
+     * @return a new empty mailbox.
+     */
+    Mailbox create(int capacity, OverflowPolicy policy);
+}
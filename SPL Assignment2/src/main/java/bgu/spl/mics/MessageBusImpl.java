@@ -9,20 +9,49 @@ package bgu.spl.mics;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class MessageBusImpl implements MessageBus {
-	private final Map<MicroService, BlockingQueue<Message>> queues;
-	private final Map<Class<? extends Event<?>>, List<MicroService>> eventSubscriptions;
-	private final Map<Class<? extends Broadcast>, List<MicroService>> broadcastSubscriptions;
-	private final Map<Event<?>, Future<?>> futures;
+	private final Map<MicroService, Mailbox> queues;
+	// indexed by message type id, a message is routed to the subscribers of its nearest subscribed type
+	private final TypeTable<SubscriberList> eventSubscriptions;
+	private final TypeTable<SubscriberList> broadcastSubscriptions;
+	// the subscriber lists each micro-service was added to, so unregister only touches those
+	private final Map<MicroService, Set<SubscriberList>> subscriptionsOf;
+	// the high-water marks of the queues of unregistered micro-services
+	private final Map<MicroService, Integer> retiredHighWaterMarks;
+	private final FutureRegistry futures;
+	private volatile MailboxFactory mailboxFactory = LockingMailbox::new;
+	private volatile int defaultMailboxCapacity = Integer.MAX_VALUE;
+	private volatile OverflowPolicy defaultOverflowPolicy = OverflowPolicy.BLOCK;
+	// the messages sent and not handled or discarded yet, counted once quiescence is tracked
+	private final AtomicLong inFlight;
+	private volatile boolean trackingQuiescence;
+	private final ReentrantLock quiescenceLock;
+	private final Condition quiescent;
+	// the barrier of sendBroadcastAndAwait: the sender is its only permanent party, every recipient of the broadcast a temporary one
+	private final Phaser barrier;
+	private volatile Broadcast awaited;
+	private final Set<MicroService> unacknowledged;
 
 	private static final MessageBusImpl instance = new MessageBusImpl();
 
 	private MessageBusImpl() {
 		this.queues = new ConcurrentHashMap<>();
-		this.eventSubscriptions = new ConcurrentHashMap<>();
-		this.broadcastSubscriptions = new ConcurrentHashMap<>();
-		this.futures = new ConcurrentHashMap<>();
+		this.eventSubscriptions = new TypeTable<>();
+		this.broadcastSubscriptions = new TypeTable<>();
+		this.subscriptionsOf = new ConcurrentHashMap<>();
+		this.retiredHighWaterMarks = new ConcurrentHashMap<>();
+		this.futures = new FutureRegistry(60, TimeUnit.SECONDS, 100_000);
+		this.inFlight = new AtomicLong();
+		this.quiescenceLock = new ReentrantLock();
+		this.quiescent = quiescenceLock.newCondition();
+		this.barrier = new Phaser(1);
+		this.unacknowledged = ConcurrentHashMap.newKeySet();
 	}
 
 	public static MessageBusImpl getInstance() {
@@ -32,98 +61,628 @@ public class MessageBusImpl implements MessageBus {
 	@Override
 	public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
 
-		List<MicroService> subscribers = eventSubscriptions.computeIfAbsent(type, k -> Collections.synchronizedList(new ArrayList<>()));
-		synchronized (subscribers) {
-			if (!subscribers.contains(m)) {
-				subscribers.add(m);
-			}
-		}
+		subscribe(eventSubscriptions.computeIfAbsent(type, SubscriberList::new), m);
+	}
+
+	/**
+	 * Subscribes {@code m} to receive {@link Event}s of type {@code type} and
+	 * routes the events of this type by key: {@code routingKey} extracts a key
+	 * from each event and events with equal keys go to the same subscriber, as
+	 * long as it stays subscribed. Keys are spread over the subscribers by
+	 * consistent hashing, so a subscriber leaving only moves its own keys.
+	 * The routing key is shared by all the subscribers of {@code type}.
+	 * <p>
+	 * @param <T>        The type of the result expected by the completed event.
+	 * @param <E>        The type of event to subscribe to.
+	 * @param type       The type to subscribe to.
+	 * @param routingKey Extracts the routing key of an event.
+	 * @param m          The subscribing micro-service.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, E extends Event<T>> void subscribeEvent(Class<E> type, Function<? super E, ?> routingKey, MicroService m) {
+
+		SubscriberList subscribers = eventSubscriptions.computeIfAbsent(type, SubscriberList::new);
+		subscribers.setRoutingKey((Function<Object, ?>) routingKey);
+		subscribe(subscribers, m);
 	}
 
 	@Override
 	public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
 
-		List<MicroService> subscribers = broadcastSubscriptions.computeIfAbsent(type, k -> Collections.synchronizedList(new ArrayList<>()));
-		synchronized (subscribers) {
-			if (!subscribers.contains(m)) {
-				subscribers.add(m);
-			}
-		}
+		subscribe(broadcastSubscriptions.computeIfAbsent(type, SubscriberList::new), m);
+	}
+
+	/**
+	 * Subscribes {@code m} to receive only the {@link Broadcast}s of type
+	 * {@code type} accepted by {@code filter}. The filter is evaluated by the
+	 * sender when the broadcast is sent, a rejected broadcast is never added
+	 * to the queue of {@code m}. It must be cheap, must not block and must
+	 * only read state that is safe to read from any thread.
+	 * <p>
+	 * @param <B>    The type of broadcast to subscribe to.
+	 * @param type   The type to subscribe to.
+	 * @param filter The broadcasts {@code m} accepts.
+	 * @param m      The subscribing micro-service.
+	 */
+	@SuppressWarnings("unchecked")
+	public <B extends Broadcast> void subscribeBroadcast(Class<B> type, Predicate<? super B> filter, MicroService m) {
+
+		subscribe(broadcastSubscriptions.computeIfAbsent(type, SubscriberList::new), m, (Predicate<Object>) filter);
 	}
 
+	/**
+	 * Adds {@code m} to {@code subscribers} and records the subscription.
+	 */
+	private void subscribe(SubscriberList subscribers, MicroService m) {
+		subscribe(subscribers, m, null);
+	}
+
+	/**
+	 * @param filter the messages {@code m} accepts, null for all of them.
+	 */
+	private void subscribe(SubscriberList subscribers, MicroService m, Predicate<Object> filter) {
+		subscriptionsOf.computeIfAbsent(m, k -> ConcurrentHashMap.newKeySet()).add(subscribers);
+		subscribers.add(m, filter);
+	}
+
+
+	/**
+	 * Sets how events of type {@code type} are distributed between the
+	 * micro-services subscribed to it. The default is
+	 * {@link DispatchMode#ROUND_ROBIN}.
+	 * <p>
+	 * @param type the event type.
+	 * @param mode the {@link DispatchMode} of events of type {@code type}.
+	 */
+	public void setDispatchMode(Class<? extends Event<?>> type, DispatchMode mode) {
+		eventSubscriptions.computeIfAbsent(type, SubscriberList::new).setDispatchMode(mode);
+	}
+
+	/**
+	 * Sets the policy by which futures of events that are never completed are
+	 * dropped. A dropped future fails with an {@link EventExpiredException}
+	 * and completing its event has no effect.
+	 * <p>
+	 * @param timeToLive the time after which a pending future is dropped.
+	 * @param unit       the {@link TimeUnit} of {@code timeToLive}.
+	 * @param maxPending the maximal number of pending futures, the oldest are
+	 *                   dropped first.
+	 */
+	public void setFutureExpiry(long timeToLive, TimeUnit unit, int maxPending) {
+		futures.setPolicy(timeToLive, unit, maxPending);
+	}
+
+	/**
+	 * @return the number of futures waiting for their event to be completed.
+	 */
+	public int getPendingFuturesCount() {
+		return futures.size();
+	}
 
 	@Override
 	public <T> void complete(Event<T> e, T result) {
 
-		synchronized (futures) {
-			Future f = futures.get(e);
-			if (f != null) {
-				f.resolve(result);
-			}
-
-		}
+		futures.complete(e, result);
 	}
 
 	@Override
 	public void sendBroadcast(Broadcast b) {
 
-		List<MicroService> subscribers = broadcastSubscriptions.get(b.getClass());
+		SubscriberList subscribers = broadcastSubscriptions.get(b.getClass());
+		if (subscribers != null) {
+			// iterate an immutable snapshot, concurrent (un)subscribes publish a new array
+			SubscriberList.Members members = subscribers.members();
+			MicroService[] services = members.services;
+			for (int i = 0; i < services.length; i++) {
+				// the filter is only asked about broadcasts that reach a queue
+				Mailbox queue = queues.get(services[i]);
+				if (queue != null && members.accepts(i, b))
+					deliver(queue, b);
+			}
+		}
+	}
+
+	/**
+	 * Adds {@code b} to the message queues of all the micro-services
+	 * subscribed to it, like {@link #sendBroadcast(Broadcast)}, and waits
+	 * until each of them has handled it, or unregistered. Used to make every
+	 * tick a phase: the next tick is sent only once the previous one was
+	 * acknowledged, so slow subscribers never fall behind. Only one thread
+	 * may send such broadcasts, one at a time, and {@code b} must not be
+	 * sent again before this method returns. A recipient whose queue
+	 * discards {@code b}, e.g. because it is full, acknowledges it right
+	 * away, unless its queue does not support discard listeners: it then
+	 * acknowledges {@code b} only when it unregisters.
+	 * <p>
+	 * @param b The broadcast to send.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void sendBroadcastAndAwait(Broadcast b) throws InterruptedException {
+
+		awaited = b;
+		SubscriberList subscribers = broadcastSubscriptions.get(b.getClass());
 		if (subscribers != null) {
-			synchronized (subscribers) {
-				for (MicroService m : subscribers) {
-					try {
-						queues.get(m).put(b);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-					}
+			SubscriberList.Members members = subscribers.members();
+			MicroService[] services = members.services;
+			for (int i = 0; i < services.length; i++) {
+				MicroService m = services[i];
+				Mailbox queue = queues.get(m);
+				if (queue == null || !members.accepts(i, b))
+					continue;
+				barrier.register();
+				unacknowledged.add(m);
+				deliver(queue, b);
+				// m may have unregistered before it was added, unregister would then have missed it
+				if (!queues.containsKey(m))
+					acknowledge(m);
+			}
+		}
+		try {
+			barrier.awaitAdvanceInterruptibly(barrier.arrive());
+		} finally {
+			awaited = null;
+		}
+	}
+
+	/**
+	 * Adds every broadcast of {@code broadcasts} to the message queues of all the
+	 * micro-services subscribed to its type, like {@link #sendBroadcast(Broadcast)}.
+	 * The messages are grouped per destination so each queue is filled and
+	 * signalled once for the whole batch, keeping the order of {@code broadcasts}.
+	 * <p>
+	 * @param broadcasts the messages to add to the queues.
+	 */
+	public void sendBroadcastBatch(List<? extends Broadcast> broadcasts) {
+
+		Map<Mailbox, List<Message>> batches = new IdentityHashMap<>();
+		Class<?> type = null;
+		SubscriberList subscribers = null;
+		for (Broadcast b : broadcasts) {
+			// consecutive broadcasts of the same type share a single lookup
+			if (b.getClass() != type) {
+				type = b.getClass();
+				subscribers = broadcastSubscriptions.get(type);
+			}
+			if (subscribers == null)
+				continue;
+			SubscriberList.Members members = subscribers.members();
+			MicroService[] services = members.services;
+			for (int i = 0; i < services.length; i++) {
+				Mailbox queue = queues.get(services[i]);
+				if (queue == null || !members.accepts(i, b))
+					continue;
+				if (b instanceof ControlMessage) {
+					sent(1);
+					queue.putControl(b);
+				} else {
+					batches.computeIfAbsent(queue, k -> new ArrayList<>()).add(b);
 				}
 			}
 		}
+		for (Map.Entry<Mailbox, List<Message>> batch : batches.entrySet()) {
+			sent(batch.getValue().size());
+			batch.getKey().putAll(batch.getValue());
+		}
 	}
 
 	@Override
 	public <T> Future<T> sendEvent(Event<T> e) {
 
-		List<MicroService> subscriptions = eventSubscriptions.get(e.getClass());
-		if (subscriptions == null || subscriptions.isEmpty()) {
+		return sendEvent(e, -1);
+	}
+
+	/**
+	 * Like {@link #sendEvent(Event)}, but {@code e} is dropped if it is still
+	 * waiting in the message queue of its handler once {@code timeout} has
+	 * elapsed. Its {@link Future} then fails with an {@link EventExpiredException}.
+	 * <p>
+	 * @param <T>     The type of the result expected by the event.
+	 * @param e       The event to add to the queue.
+	 * @param timeout The time {@code e} may wait before being handled.
+	 * @param unit    The {@link TimeUnit} of {@code timeout}.
+	 * @return {@link Future<T>} object to be resolved once the processing is complete,
+	 * 	       null in case no micro-service has subscribed to {@code e.getClass()}.
+	 */
+	public <T> Future<T> sendEvent(Event<T> e, long timeout, TimeUnit unit) {
+
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout must not be negative");
+		return sendEvent(e, unit.toNanos(timeout));
+	}
+
+	/**
+	 * @param timeoutNanos negative if {@code e} has no deadline.
+	 */
+	private <T> Future<T> sendEvent(Event<T> e, long timeoutNanos) {
+
+		Mailbox queue = nextSubscriberQueue(eventSubscriptions.get(e.getClass()), e);
+		if (queue == null) {
 			return null;
 		}
-		MicroService TempMS = subscriptions.remove(0);
-		subscriptions.add(TempMS);
-		try {
-			queues.get(TempMS).put(e);
-		} catch (InterruptedException err) {
-			Thread.currentThread().interrupt();
-		}
+		// the future must be tracked before the event is visible to its handler
+		Future<T> future = track(e, queue, timeoutNanos);
+		deliver(queue, e);
+		return future;
+	}
+
+	/**
+	 * Registers the future of {@code e}, which is about to be added to
+	 * {@code queue}. Cancelling the future takes {@code e} out of the queue.
+	 */
+	private <T> Future<T> track(Event<T> e, Mailbox queue, long timeoutNanos) {
 		Future<T> future = new Future<>();
-		futures.put(e, future);
+		futures.register(e, future, timeoutNanos);
+		future.onCancel(() -> {
+			// otherwise the event is dropped when it is taken out of the queue
+			if (queue.remove(e)) {
+				futures.discard(e);
+				settled(1);
+			}
+		});
 		return future;
 	}
 
+	/**
+	 * Adds {@code e} to the message queue of every micro-service subscribed
+	 * to its type and gathers their results into a single {@link Future}.
+	 * The subscribers are looked up once and the results are gathered in one
+	 * registry entry, whatever the number of subscribers.
+	 * <p>
+	 * @param <T> The type of the result expected by the event.
+	 * @param e   The event to add to the queues.
+	 * @return a {@link Future} resolved with the results of all the
+	 *         subscribers, in the order they completed {@code e}. null in case
+	 *         no micro-service has subscribed to {@code e.getClass()}.
+	 */
+	public <T> Future<List<T>> sendEventToAll(Event<T> e) {
 
-	@Override
-	public void register(MicroService m) {
+		return sendEventToAll(e, Integer.MAX_VALUE);
+	}
 
-		queues.putIfAbsent(m, new LinkedBlockingQueue<>());
+	/**
+	 * Like {@link #sendEventToAll(Event)}, but the returned {@link Future} is
+	 * resolved as soon as {@code quorum} subscribers completed {@code e}, e.g.
+	 * with the first result for a quorum of 1. Copies of {@code e} still
+	 * waiting once the quorum is reached are dropped without being handled.
+	 * <p>
+	 * @param <T>    The type of the result expected by the event.
+	 * @param e      The event to add to the queues.
+	 * @param quorum The number of results to wait for. If there are fewer
+	 *               subscribers, the results of all of them.
+	 * @return a {@link Future} resolved with the first {@code quorum} results,
+	 *         in the order they arrived. null in case no micro-service has
+	 *         subscribed to {@code e.getClass()}.
+	 */
+	public <T> Future<List<T>> sendEventToAll(Event<T> e, int quorum) {
 
+		if (quorum <= 0)
+			throw new IllegalArgumentException("quorum must be positive");
+		SubscriberList subscriptions = eventSubscriptions.get(e.getClass());
+		if (subscriptions == null)
+			return null;
+		MicroService[] subscribers = subscriptions.snapshot();
+		List<Mailbox> targets = new ArrayList<>(subscribers.length);
+		for (MicroService m : subscribers) {
+			Mailbox queue = queues.get(m);
+			if (queue != null)
+				targets.add(queue);
+		}
+		if (targets.isEmpty())
+			return null;
+		Future<List<T>> future = futures.registerGather(e, targets.size(), Math.min(quorum, targets.size()), -1);
+		future.onCancel(() -> {
+			for (Mailbox queue : targets) {
+				if (queue.remove(e)) {
+					futures.discard(e);
+					settled(1);
+				}
+			}
+		});
+		for (Mailbox queue : targets) {
+			deliver(queue, e);
+		}
+		return future;
+	}
+
+	/**
+	 * Adds every event of {@code events} to the message queue of one of the
+	 * micro-services subscribed to its type in a round-robin fashion, like
+	 * {@link #sendEvent(Event)}. The messages are grouped per destination so
+	 * each queue is filled and signalled once for the whole batch.
+	 * This method is non-blocking.
+	 * <p>
+	 * @param <T>    The type of the result expected by the events.
+	 * @param events The events to add to the queues.
+	 * @return the {@link Future} objects of {@code events}, in the same order.
+	 *         An element is null in case no micro-service has subscribed to the
+	 *         type of the corresponding event.
+	 */
+	public <T> List<Future<T>> sendEvents(List<? extends Event<T>> events) {
+
+		List<Future<T>> result = new ArrayList<>(events.size());
+		Map<Mailbox, List<Message>> batches = new IdentityHashMap<>();
+		Class<?> type = null;
+		SubscriberList subscriptions = null;
+		for (Event<T> e : events) {
+			// consecutive events of the same type share a single lookup
+			if (e.getClass() != type) {
+				type = e.getClass();
+				subscriptions = eventSubscriptions.get(type);
+			}
+			Mailbox queue = nextSubscriberQueue(subscriptions, e);
+			if (queue == null) {
+				result.add(null);
+				continue;
+			}
+			Future<T> future = track(e, queue, -1);
+			if (e instanceof ControlMessage) {
+				sent(1);
+				queue.putControl(e);
+			} else {
+				batches.computeIfAbsent(queue, k -> new ArrayList<>()).add(e);
+			}
+			result.add(future);
+		}
+		for (Map.Entry<Mailbox, List<Message>> batch : batches.entrySet()) {
+			sent(batch.getValue().size());
+			batch.getKey().putAll(batch.getValue());
+		}
+		return result;
 	}
 
+	/**
+	 * Adds {@code message} to the high-priority lane of the queue of
+	 * {@code m}, where it is neither dropped by the overflow policy nor
+	 * blocks the sender. Used to run the continuations of futures on the
+	 * event loop of the micro-service waiting for them.
+	 * @return false if {@code m} is not registered, the message is then dropped.
+	 */
+	boolean post(MicroService m, Message message) {
+		Mailbox queue = queues.get(m);
+		if (queue == null)
+			return false;
+		sent(1);
+		queue.putControl(message);
+		return true;
+	}
+
+	/**
+	 * Adds {@code message} to {@code queue}, on the high-priority lane if it is
+	 * a {@link ControlMessage}.
+	 */
+	private void deliver(Mailbox queue, Message message) {
+		sent(1);
+		if (message instanceof ControlMessage)
+			queue.putControl(message);
+		else
+			queue.put(message);
+	}
+
+	/**
+	 * @return the queue of the subscriber of {@code subscriptions} owning the
+	 *         routing key of {@code e} or, without a routing key, chosen by its
+	 *         {@link DispatchMode}. null if there is no registered subscriber.
+	 */
+	private Mailbox nextSubscriberQueue(SubscriberList subscriptions, Event<?> e) {
+		if (subscriptions == null)
+			return null;
+		Function<Object, ?> routingKey = subscriptions.getRoutingKey();
+		if (routingKey != null) {
+			MicroService owner = subscriptions.owner(routingKey.apply(e));
+			Mailbox queue = owner == null ? null : queues.get(owner);
+			// the owner may be unregistering, fall back to the dispatch mode until it has left the ring
+			if (queue != null)
+				return queue;
+		}
+		switch (subscriptions.getDispatchMode()) {
+			case LEAST_LOADED:
+				return leastLoadedQueue(subscriptions.snapshot(), subscriptions.nextTurn());
+			case POWER_OF_TWO_CHOICES:
+				return twoChoicesQueue(subscriptions.snapshot());
+			default:
+				return roundRobinQueue(subscriptions);
+		}
+	}
+
+	private Mailbox roundRobinQueue(SubscriberList subscriptions) {
+		Mailbox queue = null;
+		// a subscriber may unregister between the pick and the lookup, move on to the next one
+		for (int attempts = subscriptions.snapshot().length; queue == null && attempts > 0; attempts--) {
+			MicroService TempMS = subscriptions.next();
+			if (TempMS == null)
+				break;
+			queue = queues.get(TempMS);
+		}
+		return queue;
+	}
+
+	/**
+	 * @param start where to start the scan, so that ties are spread between the candidates.
+	 * @return the queue of {@code candidates} holding the fewest messages.
+	 */
+	private Mailbox leastLoadedQueue(MicroService[] candidates, int start) {
+		Mailbox best = null;
+		int bestSize = Integer.MAX_VALUE;
+		for (int i = 0; i < candidates.length; i++) {
+			MicroService candidate = candidates[(start + i) % candidates.length];
+			Mailbox queue = queues.get(candidate);
+			if (queue == null)
+				continue;
+			int size = load(candidate, queue);
+			if (size < bestSize) {
+				best = queue;
+				bestSize = size;
+				if (size == 0)
+					break;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the less loaded queue of two random {@code candidates}.
+	 */
+	private Mailbox twoChoicesQueue(MicroService[] candidates) {
+		if (candidates.length < 2)
+			return leastLoadedQueue(candidates, 0);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(candidates.length);
+		int second = random.nextInt(candidates.length - 1);
+		if (second >= first)
+			second++;
+		Mailbox a = queues.get(candidates[first]);
+		Mailbox b = queues.get(candidates[second]);
+		if (a == null || b == null) {
+			// a candidate has just unregistered, fall back to a full scan
+			return leastLoadedQueue(candidates, first);
+		}
+		return load(candidates[second], b) < load(candidates[first], a) ? b : a;
+	}
+
+	/**
+	 * @return the number of messages waiting for {@code m}: in its queue, and
+	 *         taken from it in a batch but not handled yet.
+	 */
+	private static int load(MicroService m, Mailbox queue) {
+		return queue.size() + m.undispatched();
+	}
+
+
 	@Override
-	public void unregister(MicroService m) {
-		if (queues.remove(m) != null) {
+	public void register(MicroService m) {
 
-			for (List<MicroService> subscribers : eventSubscriptions.values()) {
-				synchronized (subscribers) {
-					subscribers.remove(m);
-				}
+		queues.computeIfAbsent(m, k -> {
+			Mailbox queue = mailboxFactory.create(defaultMailboxCapacity, defaultOverflowPolicy);
+			try {
+				queue.setDiscardListener(message -> discarded(k, message));
+			} catch (UnsupportedOperationException e) {
+				// dropped events then fail once their future expires
+				if (trackingQuiescence)
+					throw e;
 			}
+			return queue;
+		});
 
-			for (List<MicroService> subscribers : broadcastSubscriptions.values()) {
-				synchronized (subscribers) {
-					subscribers.remove(m);
-				}
+	}
+
+	/**
+	 * Starts counting the messages in flight: sent to a message queue and
+	 * not handled or discarded yet, so that {@link #awaitQuiescence()} can
+	 * tell when every micro-service is idle. Counting costs an atomic update
+	 * per message sent and per batch handled, so it is off by default. It
+	 * must be enabled before micro-services are registered, and their
+	 * message queues must support discard listeners, as the
+	 * {@link LockingMailbox} and the {@link RingBufferMailbox} do.
+	 * <p>
+	 * @throws IllegalStateException if micro-services are registered already.
+	 */
+	public void trackQuiescence() {
+		if (trackingQuiescence)
+			return;
+		if (!queues.isEmpty())
+			throw new IllegalStateException("quiescence must be tracked before micro-services are registered");
+		trackingQuiescence = true;
+	}
+
+	/**
+	 * Waits until no message is in flight: every message sent was handled,
+	 * including the messages sent by the callbacks handling it, or discarded.
+	 * Work a micro-service does outside of its callbacks, e.g. in a thread of
+	 * its own, is not seen by the bus.
+	 * <p>
+	 * @throws InterruptedException if interrupted while waiting.
+	 * @throws IllegalStateException if quiescence is not tracked (see {@link #trackQuiescence()}).
+	 */
+	public void awaitQuiescence() throws InterruptedException {
+		if (!trackingQuiescence)
+			throw new IllegalStateException("quiescence is not tracked");
+		quiescenceLock.lockInterruptibly();
+		try {
+			while (inFlight.get() > 0)
+				quiescent.await();
+		} finally {
+			quiescenceLock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the {@link MailboxFactory} creating the message queues of
+	 * micro-services registered from now on, e.g.
+	 * {@link RingBufferMailbox#factory(WaitStrategy)}. By default queues are
+	 * lock-based and support every {@link OverflowPolicy}.
+	 * <p>
+	 * @param factory the factory of new message queues.
+	 */
+	public void setMailboxFactory(MailboxFactory factory) {
+		this.mailboxFactory = factory;
+	}
+
+	/**
+	 * Sets the capacity and overflow policy given to the message queues of
+	 * micro-services registered from now on. By default queues are unbounded.
+	 * <p>
+	 * @param capacity the maximal number of messages waiting in a queue.
+	 * @param policy   what a sender does when the queue is full.
+	 */
+	public void setDefaultMailboxPolicy(int capacity, OverflowPolicy policy) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("mailbox capacity must be positive");
+		this.defaultMailboxCapacity = capacity;
+		this.defaultOverflowPolicy = policy;
+	}
+
+	/**
+	 * Sets the capacity and overflow policy of the message queue of {@code m}.
+	 * <p>
+	 * @param m        a registered micro-service.
+	 * @param capacity the maximal number of messages waiting in the queue.
+	 * @param policy   what a sender does when the queue is full.
+	 * @throws IllegalStateException if {@code m} is not registered.
+	 */
+	public void configureMailbox(MicroService m, int capacity, OverflowPolicy policy) {
+		Mailbox queue = queues.get(m);
+		if (queue == null)
+			throw new IllegalStateException("Microservice is not registered ");
+		queue.configure(capacity, policy);
+	}
+
+	/**
+	 * @return the largest number of messages that waited at once in the queue
+	 *         of every micro-service registered since the marks were last
+	 *         cleared, including the ones that unregistered since.
+	 */
+	public Map<MicroService, Integer> getMailboxHighWaterMarks() {
+		Map<MicroService, Integer> marks = new HashMap<>(retiredHighWaterMarks);
+		for (Map.Entry<MicroService, Mailbox> entry : queues.entrySet()) {
+			marks.put(entry.getKey(), entry.getValue().highWaterMark());
+		}
+		return marks;
+	}
+
+	/**
+	 * Forgets the high-water marks of the micro-services that unregistered,
+	 * which are otherwise kept for {@link #getMailboxHighWaterMarks()}.
+	 */
+	public void clearRetiredHighWaterMarks() {
+		retiredHighWaterMarks.clear();
+	}
+
+	@Override
+	public void unregister(MicroService m) {
+		Mailbox queue = queues.remove(m);
+		if (queue != null) {
+			// release senders that are blocked on a full queue
+			queue.close();
+			retiredHighWaterMarks.put(m, queue.highWaterMark());
+		}
+		Set<SubscriberList> subscriptions = subscriptionsOf.remove(m);
+		if (subscriptions != null) {
+			for (SubscriberList subscribers : subscriptions) {
+				subscribers.remove(m);
 			}
 		}
+		// m never handles the broadcast awaited from it, if it is still in its queue
+		acknowledge(m);
 	}
 
 	@Override
@@ -131,12 +690,193 @@ public class MessageBusImpl implements MessageBus {
 		if (!queues.containsKey(m))
 			throw new IllegalStateException("Microservice is not registered ");
 
-		BlockingQueue<Message> mQ = queues.get(m);
+		Mailbox mQ = queues.get(m);
 			try {
 				Message output = mQ.take();
+				// events that expired or were cancelled while waiting are not handed to m
+				while (output instanceof Event && futures.discardIfStale((Event<?>) output)) {
+					settled(1);
+					output = mQ.take();
+				}
+				// there is no way to tell when the caller is done with it
+				settled(1);
+				if (output == awaited)
+					acknowledge(m);
 				return output;
 			} catch (InterruptedException e) {
 				throw new InterruptedException();
 			}
 		}
+
+	/**
+	 * Like {@link #awaitMessage(MicroService)}, but removes up to {@code max}
+	 * waiting messages from the queue of {@code m} at once. Waits until at
+	 * least one message is available.
+	 * <p>
+	 * @param m      The micro-service requesting to take messages from its message queue.
+	 * @param buffer The list the messages are added to, in the order they should be handled.
+	 * @param max    The maximal number of messages to take.
+	 * @return the number of messages added to {@code buffer}, at least one.
+	 * @throws InterruptedException if interrupted while waiting for a message.
+	 */
+	public int awaitMessages(MicroService m, List<Message> buffer, int max) throws InterruptedException {
+		Mailbox mQ = queues.get(m);
+		if (mQ == null)
+			throw new IllegalStateException("Microservice is not registered ");
+
+		int start = buffer.size();
+		while (buffer.size() == start) {
+			mQ.drainTo(buffer, max);
+			dropStale(buffer, start);
+		}
+		return buffer.size() - start;
+	}
+
+	/**
+	 * Like {@link #awaitMessages(MicroService, List, int)}, but never waits.
+	 * Used by the {@link ActorScheduler} running {@code m}.
+	 * @return the number of messages added to {@code buffer}, possibly zero.
+	 */
+	int pollMessages(MicroService m, List<Message> buffer, int max) {
+		Mailbox mQ = queues.get(m);
+		if (mQ == null)
+			throw new IllegalStateException("Microservice is not registered ");
+
+		int start = buffer.size();
+		mQ.drainAvailable(buffer, max);
+		dropStale(buffer, start);
+		return buffer.size() - start;
+	}
+
+	/**
+	 * Called by the event loop of {@code m} before each callback of a batch:
+	 * a control message that arrived since the batch was taken, e.g. a crash
+	 * notice, is inserted into {@code batch} at {@code index} to be handled
+	 * next, instead of waiting behind the rest of the batch.
+	 * @return true if a message was inserted.
+	 */
+	boolean pollControl(MicroService m, List<Message> batch, int index) {
+		Mailbox mQ = queues.get(m);
+		Message urgent = mQ == null ? null : mQ.pollControl();
+		if (urgent == null)
+			return false;
+		batch.add(index, urgent);
+		return true;
+	}
+
+	/**
+	 * Called by the event loop of a micro-service right before the callback
+	 * of {@code message}, taken from its queue earlier in a batch.
+	 * @return true if {@code message} is an event that expired or was
+	 *         cancelled since, its callback must not run.
+	 */
+	boolean discardIfStale(Message message) {
+		return message instanceof Event && futures.discardIfStale((Event<?>) message);
+	}
+
+	/**
+	 * Called by the event loop of {@code m} when it terminates, or fails, before
+	 * the callbacks of the messages of {@code batch} from {@code from} on ran.
+	 * They are discarded as if they were still in the queue of {@code m}: the
+	 * futures of their events fail right away and an awaited broadcast counts
+	 * as acknowledged. They are removed from {@code batch}.
+	 */
+	void discardUndispatched(MicroService m, List<Message> batch, int from) {
+		List<Message> rest = batch.subList(from, batch.size());
+		for (Message message : rest)
+			discarded(m, message);
+		rest.clear();
+	}
+
+	/**
+	 * Called by the event loop of {@code m} once it is done with the messages
+	 * of {@code batch}, taken from its queue, whether their callbacks ran or
+	 * {@code m} terminated before.
+	 */
+	void messagesHandled(MicroService m, List<Message> batch) {
+		settled(batch.size());
+		Broadcast b = awaited;
+		if (b != null && batch.contains(b))
+			acknowledge(m);
+	}
+
+	/**
+	 * Lets the sender of the awaited broadcast know that {@code m} is done
+	 * with it, unless it did already.
+	 */
+	private void acknowledge(MicroService m) {
+		if (unacknowledged.remove(m))
+			barrier.arriveAndDeregister();
+	}
+
+	/**
+	 * @return true if messages are waiting in the queue of {@code m}.
+	 */
+	boolean hasMessages(MicroService m) {
+		Mailbox mQ = queues.get(m);
+		return mQ != null && mQ.size() > 0;
+	}
+
+	/**
+	 * Runs {@code listener} whenever a message is added to the queue of {@code m}.
+	 * @throws UnsupportedOperationException if the queue does not support it.
+	 */
+	void setActivationListener(MicroService m, Runnable listener) {
+		Mailbox mQ = queues.get(m);
+		if (mQ == null)
+			throw new IllegalStateException("Microservice is not registered ");
+		mQ.setActivationListener(listener);
+	}
+
+	/**
+	 * Removes the events of {@code buffer}, from index {@code start}, that
+	 * expired or were cancelled while waiting, they are not handed to their handler.
+	 */
+	private void dropStale(List<Message> buffer, int start) {
+		for (int i = buffer.size() - 1; i >= start; i--) {
+			Message output = buffer.get(i);
+			if (output instanceof Event && futures.discardIfStale((Event<?>) output)) {
+				buffer.remove(i);
+				settled(1);
+			}
+		}
+	}
+
+	/**
+	 * Called by the queue of {@code m} for every message it discards without
+	 * handing it out. The future of a dropped event fails right away, and a
+	 * dropped awaited broadcast counts as acknowledged by {@code m}.
+	 */
+	private void discarded(MicroService m, Message message) {
+		if (message instanceof Event)
+			futures.drop((Event<?>) message);
+		else if (message == awaited)
+			acknowledge(m);
+		settled(1);
+	}
+
+	/**
+	 * Counts {@code count} messages about to be added to message queues.
+	 */
+	private void sent(int count) {
+		if (trackingQuiescence)
+			inFlight.addAndGet(count);
+	}
+
+	/**
+	 * Counts {@code count} messages handled or discarded, and wakes up the
+	 * threads waiting for quiescence once none is left in flight.
+	 */
+	private void settled(int count) {
+		if (!trackingQuiescence || count == 0)
+			return;
+		if (inFlight.addAndGet(-count) == 0) {
+			quiescenceLock.lock();
+			try {
+				quiescent.signalAll();
+			} finally {
+				quiescenceLock.unlock();
+			}
+		}
 	}
+}
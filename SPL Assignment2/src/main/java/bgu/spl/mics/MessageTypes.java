@@ -0,0 +1,74 @@
+package bgu.spl.mics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns every message type a small, dense id, used to index the dispatch
+ * tables of the {@link MessageBusImpl} and of each {@link MicroService} (see
+ * {@link TypeTable}).
+ * <p>
+ * Ids are assigned on first use and cached per class by a {@link ClassValue},
+ * together with the lineage of the class, so nothing is computed twice.
+ */
+final class MessageTypes {
+
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	private static final ClassValue<Integer> ids = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			return nextId.getAndIncrement();
+		}
+	};
+
+	private static final ClassValue<Class<?>[]> lineages = new ClassValue<Class<?>[]>() {
+		@Override
+		protected Class<?>[] computeValue(Class<?> type) {
+			return lineage(type);
+		}
+	};
+
+	private MessageTypes() {
+	}
+
+	/**
+	 * @return the id of {@code type}.
+	 */
+	static int idOf(Class<?> type) {
+		return ids.get(type);
+	}
+
+	/**
+	 * @return {@code type} followed by its supertypes, in the order a message
+	 *         of type {@code type} is matched against subscriptions: the
+	 *         superclasses first, nearest first, then the implemented
+	 *         interfaces, breadth-first. The array must not be modified.
+	 */
+	static Class<?>[] lineageOf(Class<?> type) {
+		return lineages.get(type);
+	}
+
+	private static Class<?>[] lineage(Class<?> type) {
+		List<Class<?>> classes = new ArrayList<>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+			classes.add(c);
+		Set<Class<?>> lineage = new LinkedHashSet<>(classes);
+		Queue<Class<?>> interfaces = new ArrayDeque<>();
+		for (Class<?> c : classes)
+			for (Class<?> i : c.getInterfaces())
+				interfaces.add(i);
+		while (!interfaces.isEmpty()) {
+			Class<?> i = interfaces.poll();
+			if (lineage.add(i))
+				for (Class<?> parent : i.getInterfaces())
+					interfaces.add(parent);
+		}
+		return lineage.toArray(new Class<?>[0]);
+	}
+}
@@ -1,8 +1,11 @@
 package bgu.spl.mics;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
 /**
  * The MicroService is an abstract class that any micro-service in the system
  * must extend. The abstract MicroService class is responsible to get and
@@ -25,8 +28,23 @@ public abstract class MicroService implements Runnable {
     private boolean terminated = false;
     private final String name;
     private MessageBusImpl MessageBus = MessageBusImpl.getInstance();
-    private final Map <Class<? extends Message>,Callback<?>> Callbacks = new HashMap<>();
+    // indexed by message type id, a message is handled by the callback of its nearest subscribed type
+    private final TypeTable<Callback<?>> Callbacks = new TypeTable<>();
     private int EventsInQueue;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    // the messages taken from the queue at once, reused by every iteration of the event loop
+    private final List<Message> batch = new ArrayList<>();
+    // the messages of the batch not handled yet, counted in the load of this micro-service
+    private volatile int undispatched;
+    // the total time spent in callbacks, measured only once timeCallbacks() was called
+    private boolean timingCallbacks;
+    private long callbackNanos;
+
+    /**
+     * The default maximal number of messages the event loop takes from the
+     * message queue at once (see {@link #setMessageBatchSize(int)}).
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
 
 
     /**
@@ -36,6 +54,8 @@ public abstract class MicroService implements Runnable {
     public MicroService(String name) {
         this.name = name;
         this.EventsInQueue = 0;
+        // the outcomes of futures posted back by whenResolved
+        this.Callbacks.put(Continuation.class, (Callback<Continuation<?>>) Continuation::run);
     }
 
     /**
@@ -65,6 +85,29 @@ public abstract class MicroService implements Runnable {
         this.Callbacks.put(type,callback);
     }
 
+    /**
+     * Subscribes to events of type {@code type} with the callback
+     * {@code callback}, like {@link #subscribeEvent(Class, Callback)}, and
+     * routes the events of this type by key: events for which
+     * {@code routingKey} returns equal keys are all sent to the same
+     * subscriber, as long as it stays subscribed.
+     * <p>
+     * @param <E>        The type of event to subscribe to.
+     * @param <T>        The type of result expected for the subscribed event.
+     * @param type       The {@link Class} representing the type of event to
+     *                   subscribe to.
+     * @param routingKey Extracts the routing key of an event. It is called by
+     *                   the sending micro-service and must be thread-safe.
+     * @param callback   The callback that should be called when messages of type
+     *                   {@code type} are taken from this micro-service message
+     *                   queue.
+     */
+    protected final <T, E extends Event<T>> void subscribeEvent(Class<E> type, Function<? super E, ?> routingKey, Callback<E> callback) {
+
+        MessageBus.subscribeEvent(type, routingKey, this);
+        this.Callbacks.put(type,callback);
+    }
+
     /**
      * Subscribes to broadcast message of type {@code type} with the callback
      * {@code callback}. This means two things:
@@ -91,6 +134,27 @@ public abstract class MicroService implements Runnable {
         this.Callbacks.put(type,callback);
     }
 
+    /**
+     * Subscribes to the broadcast messages of type {@code type} accepted by
+     * {@code filter}, with the callback {@code callback}. The filter is
+     * evaluated by the sender, so rejected broadcasts never reach the message
+     * queue of this micro-service and never wake it up. It must be cheap and
+     * must only read state that is safe to read from any thread.
+     * <p>
+     * @param <B>      The type of broadcast message to subscribe to
+     * @param type     The {@link Class} representing the type of broadcast
+     *                 message to subscribe to.
+     * @param filter   The broadcasts of type {@code type} to receive.
+     * @param callback The callback that should be called when messages of type
+     *                 {@code type} are taken from this micro-service message
+     *                 queue.
+     */
+    protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Predicate<? super B> filter, Callback<B> callback) {
+
+        MessageBus.subscribeBroadcast(type, filter, this);
+        this.Callbacks.put(type,callback);
+    }
+
     /**
      * Sends the event {@code e} using the message-bus and receive a {@link Future<T>}
      * object that may be resolved to hold a result. This method must be Non-Blocking since
@@ -108,6 +172,59 @@ public abstract class MicroService implements Runnable {
         return MessageBus.sendEvent(e);
     }
 
+    /**
+     * Sends the event {@code e} using the message-bus with a deadline: if it
+     * is still waiting in the queue of its handler once {@code timeout} has
+     * elapsed, it is dropped and its {@link Future} fails with an
+     * {@link EventExpiredException}. This method is Non-Blocking.
+     * <p>
+     * @param <T>       The type of the expected result of the request
+     *                  {@code e}
+     * @param e         The event to send
+     * @param timeout   The time {@code e} may wait before being handled
+     * @param unit      The {@link TimeUnit} of {@code timeout}
+     * @return  		{@link Future<T>} object that may be resolved later by a different
+     *         			micro-service processing this event.
+     * 	       			null in case no micro-service has subscribed to {@code e.getClass()}.
+     */
+    protected final <T> Future<T> sendEvent(Event<T> e, long timeout, TimeUnit unit) {
+
+        return MessageBus.sendEvent(e, timeout, unit);
+    }
+
+    /**
+     * Sends the event {@code e} to every micro-service subscribed to its type
+     * using the message-bus and gathers their results. This method is Non-Blocking.
+     * <p>
+     * @param <T>       The type of the expected result of the request
+     *                  {@code e}
+     * @param e         The event to send
+     * @param quorum    The number of results to wait for, 1 for the first result
+     *                  and {@link Integer#MAX_VALUE} for all of them
+     * @return          {@link Future} object resolved with the first {@code quorum}
+     *                  results, in the order the subscribers completed {@code e}.
+     *                  null in case no micro-service has subscribed to {@code e.getClass()}.
+     */
+    protected final <T> Future<List<T>> sendEventToAll(Event<T> e, int quorum) {
+
+        return MessageBus.sendEventToAll(e, quorum);
+    }
+
+    /**
+     * Sends all of {@code events} using the message-bus in a single batch, each
+     * destination queue is signalled once. This method is Non-Blocking.
+     * <p>
+     * @param <T>       The type of the expected result of the events
+     * @param events    The events to send
+     * @return          the {@link Future<T>} objects of {@code events}, in the same
+     *                  order. An element is null in case no micro-service has
+     *                  subscribed to the type of the corresponding event.
+     */
+    protected final <T> List<Future<T>> sendEvents(List<? extends Event<T>> events) {
+
+        return MessageBus.sendEvents(events);
+    }
+
     /**
      * A Micro-Service calls this method in order to send the broadcast message {@code b} using the message-bus
      * to all the services subscribed to it.
@@ -119,6 +236,31 @@ public abstract class MicroService implements Runnable {
          MessageBus.sendBroadcast(b);
     }
 
+    /**
+     * A Micro-Service calls this method in order to send the broadcast message {@code b}
+     * using the message-bus to all the services subscribed to it, and to wait until each
+     * of them has handled it. Must not be called from a callback, nor by more than one
+     * micro-service.
+     * <p>
+     * @param b The broadcast message to send
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    protected final void sendBroadcastAndAwait(Broadcast b) throws InterruptedException {
+
+        MessageBus.sendBroadcastAndAwait(b);
+    }
+
+    /**
+     * A Micro-Service calls this method in order to send all of {@code broadcasts} using the message-bus
+     * in a single batch, each destination queue is signalled once.
+     * <p>
+     * @param broadcasts The broadcast messages to send, in order
+     */
+    protected final void sendBroadcastBatch(List<? extends Broadcast> broadcasts) {
+
+        MessageBus.sendBroadcastBatch(broadcasts);
+    }
+
     /**
      * Completes the received request {@code e} with the result {@code result}
      * using the message-bus.
@@ -134,11 +276,112 @@ public abstract class MicroService implements Runnable {
         MessageBus.complete(e,result);
     }
 
+    /**
+     * Calls {@code callback} with the result of {@code future} once it is
+     * resolved. Unlike {@link Future#onComplete}, which runs on the resolving
+     * thread, the result is posted back to the message queue of this
+     * micro-service and the callback runs on its own event loop, like the
+     * callback of a message, so it may use the state of this micro-service.
+     * Failures of {@code future} are ignored.
+     * <p>
+     * @param <T>      The type of the result of {@code future}.
+     * @param future   The future to wait for, e.g. returned by {@link #sendEvent(Event)}.
+     * @param callback The callback to call with the result.
+     */
+    protected final <T> void whenResolved(Future<T> future, Callback<? super T> callback) {
+
+        whenResolved(future, callback, null);
+    }
+
+    /**
+     * Like {@link #whenResolved(Future, Callback)}, and calls {@code onFailure},
+     * also on the event loop of this micro-service, if {@code future} is
+     * cancelled or its event expires. The outcome is dropped if this
+     * micro-service has terminated by then.
+     * <p>
+     * @param <T>       The type of the result of {@code future}.
+     * @param future    The future to wait for.
+     * @param onResult  The callback to call with the result.
+     * @param onFailure The callback to call with the failure, null to ignore it.
+     */
+    protected final <T> void whenResolved(Future<T> future, Callback<? super T> onResult, Callback<? super Throwable> onFailure) {
+
+        future.onDone((result, failure) ->
+                MessageBus.post(this, new Continuation<T>(result, failure, onResult, onFailure)));
+    }
+
+    /**
+     * Bounds the message queue of this micro-service. Should be called from
+     * {@link #initialize()}, once the micro-service is registered.
+     * <p>
+     * @param capacity The maximal number of messages waiting in the queue.
+     * @param policy   What a sender does when the queue is full.
+     */
+    protected final void setMailboxCapacity(int capacity, OverflowPolicy policy) {
+
+        MessageBus.configureMailbox(this, capacity, policy);
+    }
+
+    /**
+     * Makes the message-bus count the messages in flight, so that
+     * {@link #awaitQuiescence()} can be used. Must be called before any
+     * micro-service is registered, e.g. from a constructor.
+     */
+    protected final void trackQuiescence() {
+
+        MessageBus.trackQuiescence();
+    }
+
+    /**
+     * Waits until every message sent using the message-bus was handled, by
+     * all micro-services, including the messages their callbacks sent.
+     * Must not be called from a callback, whose own message is still in flight.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    protected final void awaitQuiescence() throws InterruptedException {
+
+        MessageBus.awaitQuiescence();
+    }
+
     /**
      * this method is called once when the event loop starts.
      */
     protected abstract void initialize();
 
+    /**
+     * Sets the maximal number of messages the event loop takes from the
+     * message queue at once. The messages are still handled one by one, in
+     * order, and the loop stops right after the message that called
+     * {@link #terminate()}. A batch size of 1 takes a single message at a time.
+     * <p>
+     * @param batchSize The maximal number of messages taken at once, positive.
+     */
+    protected final void setMessageBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts measuring the time spent in the callbacks of this micro-service,
+     * see {@link #getCallbackNanos()}. Should be called from {@link #initialize()}.
+     * Costs two reads of {@link System#nanoTime()} per message handled.
+     */
+    protected final void timeCallbacks() {
+        this.timingCallbacks = true;
+    }
+
+    /**
+     * May only be called by this micro-service, e.g. from a callback.
+     * <p>
+     * @return the total time spent in the callbacks of this micro-service, in
+     *         nanoseconds, since {@link #timeCallbacks()} was called.
+     */
+    protected final long getCallbackNanos() {
+        return callbackNanos;
+    }
+
     /**
      * Signals the event loop that it must terminate after handling the current
      * message.
@@ -165,20 +408,118 @@ public abstract class MicroService implements Runnable {
         initialize();
         while (!terminated) {
             try {
-            Message message = MessageBus.awaitMessage(this);
-            Callback callback = Callbacks.get(message.getClass());
-
-            if (callback != null)
-                callback.call(message);
+            MessageBus.awaitMessages(this, batch, batchSize);
+            dispatch();
             }
             catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 this.terminate();
             } catch (IOException e) {
                 throw new RuntimeException(e);
+            } finally {
+                MessageBus.messagesHandled(this, batch);
+                batch.clear();
             }
 
         }
         MessageBus.unregister(this);
     }
+
+    /**
+     * Runs {@link #initialize()} as the first step of this micro-service when
+     * it is run by an {@link ActorScheduler}. The micro-service is registered already.
+     * <p>
+     * @return false if the micro-service terminated and unregistered.
+     */
+    final boolean startActor() {
+        initialize();
+        return unregisterIfTerminated();
+    }
+
+    /**
+     * Handles up to a batch of the messages already waiting in the queue of
+     * this micro-service, without waiting for more. Called by the
+     * {@link ActorScheduler} running this micro-service, never concurrently.
+     * <p>
+     * @return false if the micro-service terminated and unregistered.
+     */
+    final boolean runActor() {
+        try {
+            MessageBus.pollMessages(this, batch, batchSize);
+            dispatch();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            MessageBus.messagesHandled(this, batch);
+            batch.clear();
+        }
+        return unregisterIfTerminated();
+    }
+
+    /**
+     * May be called by any thread, senders balance events with it (see {@link DispatchMode}).
+     * <p>
+     * @return the number of messages taken from the queue in the current
+     *         batch and not handled yet.
+     */
+    final int undispatched() {
+        return undispatched;
+    }
+
+    /**
+     * @return true if {@link #terminate()} was called.
+     */
+    final boolean isTerminated() {
+        return terminated;
+    }
+
+    private boolean unregisterIfTerminated() {
+        if (!terminated)
+            return true;
+        MessageBus.unregister(this);
+        return false;
+    }
+
+    /**
+     * Calls the callbacks of the messages taken into {@code batch}, in order.
+     * Before each callback, a control message that arrived meanwhile is
+     * handled first, and an event whose deadline passed meanwhile is skipped,
+     * as if the messages were taken one by one.
+     */
+    private void dispatch() throws IOException {
+        int next = 0;
+        try {
+            while (next < batch.size() && !terminated) {
+                MessageBus.pollControl(this, batch, next);
+                Message message = batch.get(next++);
+                undispatched = batch.size() - next;
+                if (MessageBus.discardIfStale(message))
+                    continue;
+                handle(message);
+            }
+        } finally {
+            undispatched = 0;
+            // once a callback terminates, the rest of the batch is already out of the queue and
+            // is discarded like the messages left in it when unregistering
+            if (next < batch.size())
+                MessageBus.discardUndispatched(this, batch, next);
+        }
+    }
+
+    private void handle(Message message) throws IOException {
+        Callback callback = Callbacks.get(message.getClass());
+
+        if (callback == null)
+            return;
+        if (!timingCallbacks) {
+            callback.call(message);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            callback.call(message);
+        } finally {
+            callbackNanos += System.nanoTime() - start;
+        }
+    }
 }
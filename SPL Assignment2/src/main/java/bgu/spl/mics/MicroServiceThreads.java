@@ -0,0 +1,86 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads that run {@link MicroService}s and their helper tasks.
+ * <p>
+ * By default every thread is a platform thread. When virtual threads are
+ * enabled, either by calling {@link #setVirtualThreads(boolean)} or by
+ * starting the JVM with {@code -Dbgu.spl.mics.virtualThreads=true}, and the
+ * runtime supports them (Java 21 or later), every thread is a virtual thread
+ * so thousands of micro-services do not exhaust native threads. The blocking
+ * paths of the message bus ({@link MessageBusImpl#awaitMessage},
+ * {@link Future#get()}) use {@link java.util.concurrent.locks} and
+ * {@link java.util.concurrent.CompletableFuture}, never monitors, so a waiting
+ * micro-service never pins its carrier thread.
+ * <p>
+ * The virtual thread factory is looked up reflectively once, so the project
+ * still builds and runs on Java 8.
+ */
+public final class MicroServiceThreads {
+
+    /**
+     * The system property enabling virtual threads.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "bgu.spl.mics.virtualThreads";
+
+    private static final ThreadFactory PLATFORM = Executors.defaultThreadFactory();
+    // null if the runtime does not support virtual threads
+    private static final ThreadFactory VIRTUAL = virtualThreadFactory();
+
+    private static volatile boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+    private MicroServiceThreads() {
+    }
+
+    /**
+     * @param enabled whether threads created from now on should be virtual.
+     * @throws UnsupportedOperationException if enabling virtual threads on a
+     *                                       runtime that does not support them.
+     */
+    public static void setVirtualThreads(boolean enabled) {
+        if (enabled && VIRTUAL == null)
+            throw new UnsupportedOperationException("virtual threads require Java 21 or later");
+        virtualThreads = enabled;
+    }
+
+    /**
+     * @return true if threads created now are virtual threads.
+     */
+    public static boolean isVirtual() {
+        return virtualThreads && VIRTUAL != null;
+    }
+
+    /**
+     * @return the factory of the threads created now.
+     */
+    public static ThreadFactory factory() {
+        return isVirtual() ? VIRTUAL : PLATFORM;
+    }
+
+    /**
+     * Starts a new thread running {@code task}, virtual if enabled.
+     * <p>
+     * @param task the task to run, e.g. a {@link MicroService}.
+     * @return the started thread.
+     */
+    public static Thread start(Runnable task) {
+        Thread thread = factory().newThread(task);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return {@code Thread.ofVirtual().factory()}, null before Java 21.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package bgu.spl.mics;
+
+/**
+ * Decides what happens when a message is sent to a micro-service whose
+ * message queue is full (see {@link MessageBusImpl#configureMailbox}).
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The sender waits until the receiving micro-service takes a message.
+     */
+    BLOCK,
+
+    /**
+     * The oldest waiting message is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new message is discarded.
+     */
+    DROP_NEWEST,
+
+    /**
+     * A new {@link Broadcast} replaces the most recent waiting broadcast of the
+     * same type. If there is no such broadcast, or the message is an
+     * {@link Event}, the sender waits as in {@link #BLOCK}.
+     */
+    COALESCE
+}
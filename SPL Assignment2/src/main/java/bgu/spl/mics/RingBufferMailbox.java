@@ -0,0 +1,318 @@
+package bgu.spl.mics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A bounded multi-producer single-consumer {@link Mailbox} backed by a
+ * preallocated ring buffer.
+ * <p>
+ * Senders claim a slot with a single compare-and-set on the tail and publish
+ * the message through the slot's sequence number, so putting a message never
+ * takes a lock and never allocates. The owning micro-service is the only
+ * consumer and waits for messages according to its {@link WaitStrategy}.
+ * Control messages bypass the ring through a separate unbounded lane.
+ * <p>
+ * The capacity is rounded up to a power of two and cannot be changed after
+ * construction. Only {@link OverflowPolicy#BLOCK} and
+ * {@link OverflowPolicy#DROP_NEWEST} are supported, since the other policies
+ * require senders to remove messages that only the consumer may touch.
+ * <p>
+ * {@link #close()} takes the waiting messages out of the ring in place of the
+ * owner, so it must be called by the owner, or once the owner stopped taking
+ * messages, as the {@link MessageBusImpl} does when it unregisters.
+ */
+public final class RingBufferMailbox implements Mailbox {
+
+    /**
+     * The capacity used when an unbounded mailbox is requested.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int SPIN_TRIES = 1000;
+    private static final long MAX_SENDER_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicReferenceArray<Message> slots;
+    // slot i holds a message when its sequence is (position + 1) and is free when it is (position)
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final Queue<Message> control = new ConcurrentLinkedQueue<>();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final WaitStrategy waitStrategy;
+    private volatile OverflowPolicy policy;
+    private volatile Thread consumer;
+    // set by the owner before it parks, cleared by the single sender that unparks it
+    private final AtomicBoolean consumerParked = new AtomicBoolean();
+    private volatile Runnable activationListener;
+    private volatile Consumer<? super Message> discardListener;
+    private volatile boolean closed;
+    // held by the thread discarding the messages left once the mailbox is closed
+    private final AtomicBoolean discarding = new AtomicBoolean();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+
+    /**
+     * @param capacity     the number of slots, rounded up to a power of two, at
+     *                     least 2 since a single slot cannot tell a published
+     *                     message from a free slot by its sequence.
+     * @param policy       {@link OverflowPolicy#BLOCK} or {@link OverflowPolicy#DROP_NEWEST}.
+     * @param waitStrategy how the owner waits while the mailbox is empty.
+     */
+    public RingBufferMailbox(int capacity, OverflowPolicy policy, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("ring buffer capacity must be between 1 and 2^30");
+        int size = Math.max(Integer.highestOneBit(capacity), 2);
+        if (size < capacity)
+            size <<= 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        setPolicy(policy);
+    }
+
+    /**
+     * @param waitStrategy how the owners of the created mailboxes wait.
+     * @return a factory creating ring buffer mailboxes, an unbounded request
+     *         gets {@link #DEFAULT_CAPACITY} slots.
+     */
+    public static MailboxFactory factory(WaitStrategy waitStrategy) {
+        return (capacity, policy) -> new RingBufferMailbox(
+                capacity == Integer.MAX_VALUE ? DEFAULT_CAPACITY : capacity, policy, waitStrategy);
+    }
+
+    @Override
+    public void configure(int capacity, OverflowPolicy policy) {
+        if (capacity != mask + 1)
+            throw new IllegalArgumentException("the capacity of a ring buffer mailbox is fixed at " + (mask + 1));
+        setPolicy(policy);
+    }
+
+    @Override
+    public void put(Message message) {
+        if (enqueue(message))
+            wakeConsumer();
+    }
+
+    @Override
+    public void putControl(Message message) {
+        if (closed) {
+            discard(message);
+            return;
+        }
+        control.offer(message);
+        // the mailbox may have been closed, and emptied, before the message was added
+        if (closed)
+            discardWaiting();
+        else
+            wakeConsumer();
+    }
+
+    @Override
+    public void putAll(Collection<? extends Message> batch) {
+        boolean added = false;
+        for (Message message : batch)
+            added |= enqueue(message);
+        if (added)
+            wakeConsumer();
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        int spins = waitStrategy == WaitStrategy.SPIN_THEN_PARK ? SPIN_TRIES : 0;
+        while (true) {
+            Message message = poll();
+            if (message != null)
+                return message;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (waitStrategy == WaitStrategy.YIELD) {
+                Thread.yield();
+            } else if (spins > 0) {
+                spins--;
+            } else {
+                consumerParked.set(true);
+                // re-check after announcing the park, a sender publishes before it reads the flag
+                message = poll();
+                if (message != null) {
+                    consumerParked.set(false);
+                    return message;
+                }
+                LockSupport.park(this);
+                consumerParked.set(false);
+            }
+        }
+    }
+
+    @Override
+    public int drainTo(List<? super Message> buffer, int max) throws InterruptedException {
+        buffer.add(take());
+        return 1 + drainAvailable(buffer, max - 1);
+    }
+
+    @Override
+    public Message pollControl() {
+        return control.isEmpty() ? null : control.poll();
+    }
+
+    @Override
+    public int drainAvailable(List<? super Message> buffer, int max) {
+        int drained = 0;
+        Message message;
+        while (drained < max && (message = poll()) != null) {
+            buffer.add(message);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public void setActivationListener(Runnable listener) {
+        this.activationListener = listener;
+    }
+
+    @Override
+    public void setDiscardListener(Consumer<? super Message> listener) {
+        this.discardListener = listener;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        discardWaiting();
+    }
+
+    @Override
+    public int size() {
+        return (int) (tail.get() - head) + (control.isEmpty() ? 0 : control.size());
+    }
+
+    @Override
+    public int highWaterMark() {
+        return highWaterMark.get();
+    }
+
+    private void setPolicy(OverflowPolicy policy) {
+        if (policy != OverflowPolicy.BLOCK && policy != OverflowPolicy.DROP_NEWEST)
+            throw new IllegalArgumentException("a ring buffer mailbox does not support " + policy);
+        this.policy = policy;
+    }
+
+    /**
+     * @return true if the message was added.
+     */
+    private boolean enqueue(Message message) {
+        long backoff = 1;
+        while (!closed) {
+            if (offer(message)) {
+                // the mailbox may have been closed, and emptied, before the message was published
+                if (closed)
+                    discardWaiting();
+                return true;
+            }
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                discard(message);
+                return false;
+            }
+            // full, the consumer does not signal senders so back off until a slot frees up.
+            // the owner may be waiting for messages already added by this batch
+            wakeConsumer();
+            LockSupport.parkNanos(this, backoff);
+            backoff = Math.min(backoff << 1, MAX_SENDER_BACKOFF_NANOS);
+        }
+        discard(message);
+        return false;
+    }
+
+    /**
+     * Takes every message left in the closed mailbox and discards it. Called
+     * by close() and by the senders that published a message after it, one
+     * at a time, until no message is left.
+     */
+    private void discardWaiting() {
+        while (size() > 0 && discarding.compareAndSet(false, true)) {
+            try {
+                Message message;
+                while ((message = poll()) != null)
+                    discard(message);
+            } finally {
+                discarding.set(false);
+            }
+            // a sender may have claimed a slot and not published its message yet
+            Thread.yield();
+        }
+    }
+
+    private void discard(Message message) {
+        Consumer<? super Message> listener = discardListener;
+        if (listener != null)
+            listener.accept(message);
+    }
+
+    private boolean offer(Message message) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, message);
+                    sequences.set(index, position + 1);
+                    updateHighWaterMark((int) (position + 1 - head));
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+            // another sender claimed this position, retry with the new tail
+        }
+    }
+
+    private Message poll() {
+        Message urgent = control.poll();
+        if (urgent != null)
+            return urgent;
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1)
+            return null;
+        Message message = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return message;
+    }
+
+    private void wakeConsumer() {
+        Runnable listener = activationListener;
+        if (listener != null)
+            listener.run();
+        // the senders racing to wake the owner unpark it only once
+        if (consumerParked.get() && consumerParked.getAndSet(false)) {
+            Thread owner = consumer;
+            if (owner != null)
+                LockSupport.unpark(owner);
+        }
+    }
+
+    private void updateHighWaterMark(int size) {
+        int mark;
+        while (size > (mark = highWaterMark.get())) {
+            if (highWaterMark.compareAndSet(mark, size))
+                return;
+        }
+    }
+}
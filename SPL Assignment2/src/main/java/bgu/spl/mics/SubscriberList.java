@@ -0,0 +1,195 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The set of micro-services subscribed to a single message type.
+ * <p>
+ * The subscribers are published as an immutable array which is replaced
+ * atomically on every subscribe / unregister, so senders iterate a stable
+ * snapshot without taking any lock and never block each other.
+ * Events are handed out in a round-robin fashion using an atomic cursor over
+ * the same snapshot, unless another {@link DispatchMode} is set. When a
+ * routing key is set, events are routed by consistent hashing of their key
+ * instead, so events with the same key keep going to the same subscriber.
+ * <p>
+ * A subscriber may also have a filter, stored in the same snapshot, which
+ * the sender evaluates before adding a message to its queue.
+ */
+final class SubscriberList {
+
+	private static final Members EMPTY = new Members(new MicroService[0], null);
+
+	private final AtomicReference<Members> subscribers = new AtomicReference<>(EMPTY);
+	private final AtomicInteger cursor = new AtomicInteger();
+	private volatile DispatchMode dispatchMode = DispatchMode.ROUND_ROBIN;
+	private volatile Function<Object, ?> routingKey;
+	// rebuilt lazily whenever the subscribers snapshot changes
+	private volatile HashRing ring;
+
+	/**
+	 * @return the current subscribers. The returned array must not be modified.
+	 */
+	MicroService[] snapshot() {
+		return subscribers.get().services;
+	}
+
+	/**
+	 * @return the current subscribers together with their filters.
+	 */
+	Members members() {
+		return subscribers.get();
+	}
+
+	DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+
+	void setDispatchMode(DispatchMode dispatchMode) {
+		this.dispatchMode = dispatchMode;
+	}
+
+	Function<Object, ?> getRoutingKey() {
+		return routingKey;
+	}
+
+	void setRoutingKey(Function<Object, ?> routingKey) {
+		this.routingKey = routingKey;
+	}
+
+	/**
+	 * @return the subscriber owning {@code key} on the consistent-hashing ring
+	 *         of the current subscribers, null if there are no subscribers.
+	 */
+	MicroService owner(Object key) {
+		MicroService[] current = snapshot();
+		HashRing currentRing = ring;
+		if (currentRing == null || !currentRing.isBuiltFrom(current)) {
+			// the previous ring keeps the points of the subscribers still on it
+			currentRing = new HashRing(current, currentRing);
+			ring = currentRing;
+		}
+		return currentRing.owner(key);
+	}
+
+	/**
+	 * Picks the next subscriber in round-robin order.
+	 * @return the chosen subscriber, null if there are no subscribers.
+	 */
+	MicroService next() {
+		MicroService[] current = snapshot();
+		if (current.length == 0)
+			return null;
+		return current[nextTurn() % current.length];
+	}
+
+	/**
+	 * @return a non-negative number that grows by one on every call.
+	 */
+	int nextTurn() {
+		// mask the sign bit so the cursor keeps rotating after it overflows
+		return cursor.getAndIncrement() & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Adds {@code m} to the subscribers if it is not already subscribed.
+	 * @return true if {@code m} was added.
+	 */
+	boolean add(MicroService m) {
+		return add(m, null);
+	}
+
+	/**
+	 * Adds {@code m} to the subscribers with {@code filter}, or replaces its
+	 * filter if it is already subscribed.
+	 * @param filter the messages {@code m} accepts, null for all of them.
+	 * @return true if {@code m} was added.
+	 */
+	boolean add(MicroService m, Predicate<Object> filter) {
+		while (true) {
+			Members current = subscribers.get();
+			int index = indexOf(current.services, m);
+			if (index >= 0 && current.filterOf(index) == filter)
+				return false;
+			int length = current.services.length;
+			MicroService[] services = index >= 0 ? current.services.clone() : Arrays.copyOf(current.services, length + 1);
+			Predicate<Object>[] filters = current.filters;
+			if (filters != null || filter != null) {
+				filters = filters == null ? newFilters(services.length) : Arrays.copyOf(filters, services.length);
+			}
+			int at = index >= 0 ? index : length;
+			services[at] = m;
+			if (filters != null)
+				filters[at] = filter;
+			if (subscribers.compareAndSet(current, new Members(services, filters)))
+				return index < 0;
+		}
+	}
+
+	/**
+	 * Removes {@code m} from the subscribers.
+	 * @return true if {@code m} was subscribed.
+	 */
+	boolean remove(MicroService m) {
+		while (true) {
+			Members current = subscribers.get();
+			int index = indexOf(current.services, m);
+			if (index < 0)
+				return false;
+			Members next = EMPTY;
+			if (current.services.length > 1)
+				next = new Members(without(current.services, index), current.filters == null ? null : without(current.filters, index));
+			if (subscribers.compareAndSet(current, next))
+				return true;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Predicate<Object>[] newFilters(int length) {
+		return (Predicate<Object>[]) new Predicate<?>[length];
+	}
+
+	private static <T> T[] without(T[] array, int index) {
+		T[] next = Arrays.copyOf(array, array.length - 1);
+		System.arraycopy(array, index + 1, next, index, array.length - index - 1);
+		return next;
+	}
+
+	private static int indexOf(MicroService[] services, MicroService m) {
+		for (int i = 0; i < services.length; i++) {
+			if (services[i] == m)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * An immutable snapshot of the subscribers and of their filters.
+	 */
+	static final class Members {
+		final MicroService[] services;
+		// aligned with services, null if no subscriber has a filter
+		private final Predicate<Object>[] filters;
+
+		Members(MicroService[] services, Predicate<Object>[] filters) {
+			this.services = services;
+			this.filters = filters;
+		}
+
+		/**
+		 * @return true if the subscriber at {@code index} accepts {@code message}.
+		 */
+		boolean accepts(int index, Message message) {
+			Predicate<Object> filter = filterOf(index);
+			return filter == null || filter.test(message);
+		}
+
+		private Predicate<Object> filterOf(int index) {
+			return filters == null ? null : filters[index];
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link MicroService} that drives the simulation clock, e.g. by sending a
+ * tick broadcast at a fixed rate from its own timer.
+ * <p>
+ * An executor that controls time itself, like the
+ * {@link CooperativeExecutor}, calls {@link #driveExternally()} before the
+ * micro-service is initialized, and then calls {@link #advance()} whenever
+ * the previous tick was fully handled.
+ */
+public interface TickSource {
+
+    /**
+     * Tells the tick source not to start its own timer: the clock is advanced
+     * only by calls to {@link #advance()}. Called before the micro-service is
+     * initialized.
+     */
+    void driveExternally();
+
+    /**
+     * Sends the next tick, or the end of the simulation after the last one.
+     * <p>
+     * @return false once the simulation ended and no more ticks will be sent.
+     */
+    boolean advance();
+}
@@ -0,0 +1,113 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Maps message types to values, e.g. subscriber lists or callbacks, through
+ * arrays indexed by {@link MessageTypes#idOf(Class) type ids}.
+ * <p>
+ * A lookup finds the value of the type itself or, if there is none, of its
+ * nearest supertype that has one (see {@link MessageTypes#lineageOf(Class)}),
+ * so a message whose class extends a subscribed type is handled as that type.
+ * The resolution is computed once per type and cached, a lookup is then a
+ * single array index. Adding a value is expected to be rare: it copies the
+ * table and clears the cache under a lock, lookups never lock.
+ */
+final class TypeTable<V> {
+
+	private static final Object[] EMPTY = {};
+	// cached for types that resolve to no value
+	private static final Object NONE = new Object();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// the value added for each type id
+	private volatile Object[] values = EMPTY;
+	// the value each type id resolves to, NONE if there is none, null if not resolved yet
+	private volatile Object[] resolved = EMPTY;
+
+	/**
+	 * @return the value of {@code type} or of its nearest supertype, null if none.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(Class<?> type) {
+		int id = MessageTypes.idOf(type);
+		Object[] cache = resolved;
+		Object value = id < cache.length ? cache[id] : null;
+		if (value == null)
+			value = resolve(type, id);
+		return value == NONE ? null : (V) value;
+	}
+
+	/**
+	 * @return the value added for {@code type} itself, adding the value of
+	 *         {@code factory} if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	V computeIfAbsent(Class<?> type, Supplier<? extends V> factory) {
+		int id = MessageTypes.idOf(type);
+		Object[] table = values;
+		if (id < table.length && table[id] != null)
+			return (V) table[id];
+		lock.lock();
+		try {
+			table = values;
+			if (id < table.length && table[id] != null)
+				return (V) table[id];
+			V value = factory.get();
+			set(id, value);
+			return value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds {@code value} for {@code type}, replacing its previous value.
+	 */
+	void put(Class<?> type, V value) {
+		int id = MessageTypes.idOf(type);
+		lock.lock();
+		try {
+			set(id, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called while holding the lock.
+	 */
+	private void set(int id, Object value) {
+		Object[] table = Arrays.copyOf(values, Math.max(values.length, id + 1));
+		table[id] = value;
+		values = table;
+		// the value may now be the nearest one of subtypes resolved before
+		resolved = EMPTY;
+	}
+
+	private Object resolve(Class<?> type, int id) {
+		lock.lock();
+		try {
+			Object[] table = values;
+			Object value = NONE;
+			for (Class<?> c : MessageTypes.lineageOf(type)) {
+				int superId = MessageTypes.idOf(c);
+				if (superId < table.length && table[superId] != null) {
+					value = table[superId];
+					break;
+				}
+			}
+			Object[] cache = resolved;
+			if (id >= cache.length)
+				cache = Arrays.copyOf(cache, Math.max(values.length, id + 1));
+			cache[id] = value;
+			// republished so the cached entry is visible to lock-free readers
+			resolved = cache;
+			return value;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package bgu.spl.mics;
+
+/**
+ * Decides how a micro-service waits for a message when its
+ * {@link RingBufferMailbox} is empty.
+ */
+public enum WaitStrategy {
+
+    /**
+     * Park the thread until a sender wakes it. Lowest CPU usage.
+     */
+    BLOCKING,
+
+    /**
+     * Busy-spin for a short while before parking, trading some CPU for lower
+     * wake-up latency when messages arrive in bursts.
+     */
+    SPIN_THEN_PARK,
+
+    /**
+     * Keep yielding the processor and never park. Lowest latency, keeps a core
+     * busy while idle.
+     */
+    YIELD
+}
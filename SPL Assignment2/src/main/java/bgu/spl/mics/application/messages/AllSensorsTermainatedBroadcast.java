@@ -4,4 +4,11 @@ import bgu.spl.mics.Broadcast;
 
 public class AllSensorsTermainatedBroadcast implements Broadcast {
 
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final AllSensorsTermainatedBroadcast INSTANCE = new AllSensorsTermainatedBroadcast();
+
+    private AllSensorsTermainatedBroadcast() {
+    }
 }
@@ -1,13 +1,14 @@
 package bgu.spl.mics.application.messages;
 
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.ControlMessage;
 
 /**
  * this broadcast can send by all the sensors to signal
  * the other sensors that the sending sensor crashed
  */
 
-public class CrashedBroadcast implements Broadcast {
+public class CrashedBroadcast implements Broadcast, ControlMessage {
     private final String senderName;
 
     public CrashedBroadcast(String senderName) {
@@ -3,4 +3,12 @@ package bgu.spl.mics.application.messages;
 import bgu.spl.mics.Broadcast;
 
 public class DetectedObjectsBroadcast implements Broadcast {
+
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final DetectedObjectsBroadcast INSTANCE = new DetectedObjectsBroadcast();
+
+    private DetectedObjectsBroadcast() {
+    }
 }
@@ -4,4 +4,11 @@ import bgu.spl.mics.Broadcast;
 
 public class LandmarkBroadcast implements Broadcast {
 
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final LandmarkBroadcast INSTANCE = new LandmarkBroadcast();
+
+    private LandmarkBroadcast() {
+    }
 }
@@ -4,4 +4,11 @@ import bgu.spl.mics.Broadcast;
 
 public class LiDarTerminationBroadcast implements Broadcast {
 
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final LiDarTerminationBroadcast INSTANCE = new LiDarTerminationBroadcast();
+
+    private LiDarTerminationBroadcast() {
+    }
 }
@@ -4,4 +4,11 @@ import bgu.spl.mics.Broadcast;
 
 public class OutputBroadcast implements Broadcast {
 
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final OutputBroadcast INSTANCE = new OutputBroadcast();
+
+    private OutputBroadcast() {
+    }
 }
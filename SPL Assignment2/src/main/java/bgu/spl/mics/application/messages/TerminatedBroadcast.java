@@ -9,5 +9,11 @@ import bgu.spl.mics.Broadcast;
 
 public class TerminatedBroadcast implements Broadcast {
 
-    // no additional methods and fields are required
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final TerminatedBroadcast INSTANCE = new TerminatedBroadcast();
+
+    private TerminatedBroadcast() {
+    }
 }
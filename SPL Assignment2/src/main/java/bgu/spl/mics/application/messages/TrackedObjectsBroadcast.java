@@ -4,4 +4,11 @@ import bgu.spl.mics.Broadcast;
 
 public class TrackedObjectsBroadcast implements Broadcast {
 
+    /**
+     * The only instance, this broadcast carries no data.
+     */
+    public static final TrackedObjectsBroadcast INSTANCE = new TrackedObjectsBroadcast();
+
+    private TrackedObjectsBroadcast() {
+    }
 }
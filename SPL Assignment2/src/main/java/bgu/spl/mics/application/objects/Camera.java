@@ -1,5 +1,7 @@
 package bgu.spl.mics.application.objects;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 /**
  * Represents a camera sensor on the robot.
@@ -12,6 +14,8 @@ public class Camera {
     private final List<StampedDetectedObjects> stampedDetectedObjectsList;
     private StampedDetectedObjects MostRecent;
     private final int terminationTime;
+    // the ticks isScheduledAt is true for, read by the TimeService thread on every tick
+    private final BitSet ScheduledTicks;
 
     public Camera(int id, int frequency, List<StampedDetectedObjects> detectedObjectList, int terminationTime) {
         this.id = id;
@@ -19,6 +23,17 @@ public class Camera {
         this.terminationTime = terminationTime;
         this.status = STATUS.UP;
         this.stampedDetectedObjectsList = detectedObjectList;
+        this.ScheduledTicks = new BitSet();
+        for (StampedDetectedObjects data : detectedObjectList) {
+            schedule(data.getTime());
+            schedule(data.getTime() + frequency);
+        }
+        schedule(terminationTime);
+    }
+
+    private void schedule(int tick) {
+        if (tick >= 0)
+            ScheduledTicks.set(tick);
     }
 
     public int getId() {
@@ -59,4 +74,25 @@ public class Camera {
     public int getTerminationTime() {
         return terminationTime;
     }
+
+    /**
+     * Checks whether the camera has anything to do at a specific tick.
+     *
+     * @param tick The tick to check.
+     * @return true if objects were detected at {@code tick}, detected objects are
+     *         due to be sent at {@code tick}, or the camera terminates at {@code tick}.
+     */
+    public boolean isScheduledAt(int tick) {
+        return tick >= 0 && ScheduledTicks.get(tick);
+    }
+
+    /**
+     * @return every tick {@link #isScheduledAt(int)} is true for, in increasing order.
+     */
+    public List<Integer> getScheduledTicks() {
+        List<Integer> ticks = new ArrayList<>(ScheduledTicks.cardinality());
+        for (int tick = ScheduledTicks.nextSetBit(0); tick >= 0; tick = ScheduledTicks.nextSetBit(tick + 1))
+            ticks.add(tick);
+        return Collections.unmodifiableList(ticks);
+    }
 }
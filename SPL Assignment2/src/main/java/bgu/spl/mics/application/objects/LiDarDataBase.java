@@ -1,5 +1,6 @@
 package bgu.spl.mics.application.objects;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -52,6 +53,19 @@ public class LiDarDataBase {
         return null;
     }
 
+    /**
+     * @return the ticks at which the connection to the LiDar is lost.
+     */
+    public List<Integer> getErrorTicks() {
+        List<Integer> ticks = new ArrayList<>();
+        for (StampedCloudPoints SCP : StampedCloudPoints) {
+            if (SCP.getId().equals("ERROR")) {
+                ticks.add(SCP.getTime());
+            }
+        }
+        return ticks;
+    }
+
     public Boolean ErrorAtTick(int tick) {
         for (StampedCloudPoints SCP : StampedCloudPoints) {
             if (SCP.getTime() == tick && SCP.getId().equals("ERROR")) {
@@ -6,11 +6,16 @@ public class Output {
 
     private final List<LandMark> landMarkList = FusionSlam.getInstance().getLandMarks();
     private final StatisticalFolder statistics = StatisticalFolder.getInstance();
+    private final List<ServiceMetrics> serviceMetrics = ServiceMetrics.getAll();
 
     public StatisticalFolder getStatistics() {
         return statistics;
     }
 
+    public List<ServiceMetrics> getServiceMetrics() {
+        return serviceMetrics;
+    }
+
     public List<LandMark> getLandMarkList() {
         return landMarkList;
     }
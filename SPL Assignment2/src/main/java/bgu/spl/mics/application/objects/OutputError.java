@@ -13,6 +13,7 @@ public class OutputError {
     private final List<Pose> poses = PoseService.getPoses();
     private final StatisticalFolder statistics = StatisticalFolder.getInstance();
     private final List<LandMark> landMarks = FusionSlam.getInstance().getLandMarks();
+    private final List<ServiceMetrics> serviceMetrics = ServiceMetrics.getAll();
 
     public OutputError(String sourceDescription, String faultySensor) {
         this.SourceDescription = sourceDescription;
@@ -40,5 +41,9 @@ public class OutputError {
         return statistics;
     }
 
+    public List<ServiceMetrics> getServiceMetrics() {
+        return serviceMetrics;
+    }
+
 
 }
@@ -0,0 +1,200 @@
+package bgu.spl.mics.application.objects;
+
+import bgu.spl.mics.MicroService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Holds the tick metrics of a single service: the last tick it processed, how
+ * many ticks were delivered to it and not processed yet, and a histogram of the
+ * time it spent in callbacks per tick. Every service writes its own metrics from
+ * its own thread, any thread may read them. The metrics of all the services are
+ * written to the output file and may be printed periodically by the TimeService.
+ */
+public class ServiceMetrics {
+
+    // the histogram bucket i counts the ticks that took less than 2^i microseconds, and at least 2^(i-1)
+    public static final int BUCKETS = 32;
+    // the number of ticks delivered whose ordinal is remembered, see deliveredOrdinals
+    private static final int DELIVERED_WINDOW = 1024;
+
+    // keyed by the service itself, several services may have the same name
+    private static final Map<MicroService, ServiceMetrics> all = new ConcurrentHashMap<>();
+    private static volatile int currentTick;
+
+    private final String service;
+    private volatile int lastTick;
+    // counted by the TimeService thread as it sends the ticks, not written to the output
+    private final transient AtomicInteger deliveredTicks;
+    // the ordinal of each tick delivered in deliveredTicks, packed as tick << 32 | ordinal at tick % DELIVERED_WINDOW
+    private final transient AtomicLongArray deliveredOrdinals;
+    // the ordinal of the last tick processed: the ticks delivered up to it were processed or discarded
+    private volatile int processedTicks;
+    private volatile int maxLag;
+    private final AtomicLongArray callbackMicrosHistogram;
+    // the callback time of the service when it processed its last tick, not written to the output
+    private transient long lastCallbackNanos;
+
+    private ServiceMetrics(String service) {
+        this.service = service;
+        this.lastTick = 0;
+        this.deliveredTicks = new AtomicInteger();
+        this.deliveredOrdinals = new AtomicLongArray(DELIVERED_WINDOW);
+        this.processedTicks = 0;
+        this.maxLag = 0;
+        this.callbackMicrosHistogram = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * @param service The service, its metrics are reported under its name.
+     * @return the metrics of the service, created the first time.
+     */
+    public static ServiceMetrics register(MicroService service) {
+        return all.computeIfAbsent(service, s -> new ServiceMetrics(s.getName()));
+    }
+
+    /**
+     * Wraps the filter of the tick subscription of the service, which the
+     * TimeService evaluates as it sends each tick to a registered service, so
+     * that every tick accepted is counted as delivered to the service. A tick
+     * its message queue then discards, e.g. by its overflow policy, stops
+     * counting once the service processes a later tick.
+     *
+     * @param filter The ticks the service receives.
+     * @param tickOf The tick number of a tick message.
+     * @return a filter accepting the same ticks.
+     */
+    public <B> Predicate<B> countingDelivered(Predicate<? super B> filter, ToIntFunction<? super B> tickOf) {
+        return message -> {
+            if (!filter.test(message))
+                return false;
+            int tick = tickOf.applyAsInt(message);
+            deliveredOrdinals.set(tick & (DELIVERED_WINDOW - 1), ((long) tick << 32) | deliveredTicks.incrementAndGet());
+            return true;
+        };
+    }
+
+    /**
+     * @return the metrics of every registered service.
+     */
+    public static List<ServiceMetrics> getAll() {
+        return new ArrayList<>(all.values());
+    }
+
+    /**
+     * Called by the TimeService whenever it moves to a new tick.
+     *
+     * @param tick The tick sent by the TimeService.
+     */
+    public static void setCurrentTick(int tick) {
+        currentTick = tick;
+    }
+
+    public static int getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Records that the service processed {@code tick}, delivered to it through
+     * a filter made by {@link #countingDelivered}. The time spent in callbacks
+     * since the previous tick it processed is counted for that previous tick.
+     *
+     * @param tick          The tick processed by the service.
+     * @param callbackNanos The total time the service spent in callbacks so far.
+     */
+    public void tickProcessed(int tick, long callbackNanos) {
+        if (lastTick > 0)
+            callbackMicrosHistogram.incrementAndGet(bucket((callbackNanos - lastCallbackNanos) / 1000));
+        lastCallbackNanos = callbackNanos;
+        lastTick = tick;
+        // ticks are sent and processed in order, the ticks delivered before this one were processed or discarded
+        long delivered = deliveredOrdinals.get(tick & (DELIVERED_WINDOW - 1));
+        processedTicks = (int) (delivered >>> 32) == tick ? (int) delivered : processedTicks + 1;
+        int lag = getLag();
+        if (lag > maxLag)
+            maxLag = lag;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public int getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     * @return the number of ticks delivered to the service and not processed
+     *         yet. Ticks the service filters out or the TimeService skips are
+     *         never delivered, so they do not count, and ticks discarded by
+     *         the message queue of the service only count until it processes
+     *         a later tick.
+     */
+    public int getLag() {
+        return Math.max(deliveredTicks.get() - processedTicks, 0);
+    }
+
+    /**
+     * @return the largest lag the service had right after it processed a tick.
+     */
+    public int getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * @return the number of ticks in each bucket, see {@link #BUCKETS}.
+     */
+    public long[] getCallbackMicrosHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = callbackMicrosHistogram.get(i);
+        return counts;
+    }
+
+    /**
+     * @param fraction The fraction of ticks, e.g. 0.99.
+     * @return an upper bound of the callback time of that fraction of the ticks,
+     *         in microseconds, 0 if no tick was recorded.
+     */
+    public long getCallbackMicrosPercentile(double fraction) {
+        long[] counts = getCallbackMicrosHistogram();
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (total > 0 && seen >= fraction * total)
+                return 1L << i;
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return service + ": last tick " + lastTick + ", lag " + getLag() + " (max " + maxLag + ")"
+                + ", callback time per tick p50 < " + getCallbackMicrosPercentile(0.5) + "us"
+                + ", p99 < " + getCallbackMicrosPercentile(0.99) + "us";
+    }
+
+    /**
+     * @return the metrics of every service, one per line.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder("tick " + currentTick);
+        for (ServiceMetrics metrics : getAll())
+            report.append(System.lineSeparator()).append(metrics);
+        return report.toString();
+    }
+
+    private static int bucket(long micros) {
+        return Math.min(64 - Long.numberOfLeadingZeros(Math.max(micros, 0)), BUCKETS - 1);
+    }
+}
@@ -0,0 +1,45 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Holds the ticks at which services have something to do.
+ * When the TimeService skips idle ticks, it jumps from the current tick straight
+ * to the earliest tick registered here, so a service must register a tick it
+ * needs before it finishes handling the current one.
+ */
+public class WakeUpRegistry {
+
+    private static final WakeUpRegistry instance = new WakeUpRegistry();
+    private final ConcurrentSkipListSet<Integer> wakeUpTicks;
+
+    private WakeUpRegistry() {
+
+        this.wakeUpTicks = new ConcurrentSkipListSet<>();
+    }
+
+    public static WakeUpRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers a tick at which a service has something to do.
+     *
+     * @param tick The tick to wake up at, ticks that have passed are ignored.
+     */
+    public void wakeUpAt(int tick) {
+        wakeUpTicks.add(tick);
+    }
+
+    /**
+     * Forgets the ticks up to {@code tick}, which have passed.
+     *
+     * @param tick The current tick.
+     * @return the earliest registered tick after {@code tick}, or Integer.MAX_VALUE if there is none.
+     */
+    public int nextAfter(int tick) {
+        wakeUpTicks.headSet(tick, true).clear();
+        Integer next = wakeUpTicks.higher(tick);
+        return next == null ? Integer.MAX_VALUE : next;
+    }
+}
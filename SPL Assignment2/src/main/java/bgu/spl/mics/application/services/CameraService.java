@@ -15,6 +15,7 @@ import java.util.List;
  */
 public class CameraService extends MicroService {
     private final Camera Mycamera;
+    private final ServiceMetrics Metrics;
 
     /**
      *
@@ -25,6 +26,7 @@ public class CameraService extends MicroService {
     public CameraService(Camera camera) {
         super("camera service" + camera.getId());
         this.Mycamera = camera;
+        this.Metrics = ServiceMetrics.register(this);
 
     }
 
@@ -36,22 +38,32 @@ public class CameraService extends MicroService {
     @Override
     protected void initialize() {
 
+        // measure the callback time, reported per tick in the service metrics
+        timeCallbacks();
+
         // subscribe to TickBroadcast. callback: when the current tick matches the camera frequency
-        // send DetectObjectsEvent with the list of the detected objects of current tick
+        // send DetectObjectsEvent with the list of the detected objects of current tick.
+        // only the ticks the camera has something to do at are delivered, and
+        // the TimeService does not skip them when it skips idle ticks
+        for (int tick : Mycamera.getScheduledTicks())
+            WakeUpRegistry.getInstance().wakeUpAt(tick);
 
-        subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {
+        subscribeBroadcast(TickBroadcast.class, Metrics.countingDelivered(tick -> Mycamera.isScheduledAt(tick.getTick()), TickBroadcast::getTick), tickBroadcast -> {
             int currTick = tickBroadcast.getTick();
+            Metrics.tickProcessed(currTick, getCallbackNanos());
             // checking fo an error at this current tick
             StampedDetectedObjects currentTickObjects = Mycamera.getObjectAtTick(currTick);
-            // checking for error
-            for (DetectedObject DO : currentTickObjects.getDetectedObjects()) {
-                if (DO.getId().equals("ERROR")) {
-                    // create an OutputError file, send CrashedBroadcast,set status to error and terminate
-                    OutputError error = new OutputError(DO.getDescription(), "camera" + Mycamera.getId());
-                    JsonFileWriter.writeObjectToJsonFile(error, Config.getOutputFilePath());
-                    sendBroadcast(new CrashedBroadcast(this.getName()));
-                    Mycamera.setStatus(STATUS.ERROR);
-                    this.terminate();
+            // checking for error. send ticks and the termination tick may have no detection data
+            if (currentTickObjects != null) {
+                for (DetectedObject DO : currentTickObjects.getDetectedObjects()) {
+                    if (DO.getId().equals("ERROR")) {
+                        // create an OutputError file, send CrashedBroadcast,set status to error and terminate
+                        OutputError error = new OutputError(DO.getDescription(), "camera" + Mycamera.getId());
+                        JsonFileWriter.writeObjectToJsonFile(error, Config.getOutputFilePath());
+                        sendBroadcast(new CrashedBroadcast(this.getName()));
+                        Mycamera.setStatus(STATUS.ERROR);
+                        this.terminate();
+                    }
                 }
             }
             if (Mycamera.isUP()) {
@@ -65,7 +77,7 @@ public class CameraService extends MicroService {
                     DetectObjectsEvent TickObjectsEvent = new DetectObjectsEvent(TickObjects , relevantDetectionTick, currTick);
                     sendEvent(TickObjectsEvent);
                     // notify the service manager to decrease the number of detectedObjectsEvent remain to send
-                    sendBroadcast(new DetectedObjectsBroadcast());
+                    sendBroadcast(DetectedObjectsBroadcast.INSTANCE);
                 }
                 if (currTick == Mycamera.getTerminationTime()){
                     sendBroadcast(new SensorTerminationBroadcast(this));
@@ -17,6 +17,7 @@ import java.util.List;
 public class FusionSlamService extends MicroService {
 
     private final FusionSlam fusionSlam;
+    private final ServiceMetrics Metrics;
     /**
      * Constructor for FusionSlamService.
      *
@@ -25,6 +26,7 @@ public class FusionSlamService extends MicroService {
     public FusionSlamService(FusionSlam fusionSlam) {
         super("FusionSlam service");
         this.fusionSlam = FusionSlam.getInstance();
+        this.Metrics = ServiceMetrics.register(this);
     }
 
     /**
@@ -35,8 +37,12 @@ public class FusionSlamService extends MicroService {
     @Override
     protected void initialize() {
 
-        // subscribe to TickBroadcast. callback: nothing
-        subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {});
+        // measure the callback time, reported per tick in the service metrics
+        timeCallbacks();
+
+        // subscribe to TickBroadcast. callback: record the tick in the service metrics
+        subscribeBroadcast(TickBroadcast.class, Metrics.countingDelivered(tick -> true, TickBroadcast::getTick), tickBroadcast ->
+                Metrics.tickProcessed(tickBroadcast.getTick(), getCallbackNanos()));
 
         // subscribe to PoseEvent. callback: add the event pose to the fusion slam poses list.
         subscribeEvent(PoseEvent.class, poseEvent -> {
@@ -49,7 +55,7 @@ public class FusionSlamService extends MicroService {
             List<LandMark> globalLandmarks = fusionSlam.transformToGlobal(TrackedEvent.getTrackedObjects(), fusionSlam.getPoses().get(fusionSlam.getPoses().size() - 1));
             fusionSlam.updateLandmarks(globalLandmarks);
             // notify the service manager
-            sendBroadcast(new LandmarkBroadcast());
+            sendBroadcast(LandmarkBroadcast.INSTANCE);
             complete(TrackedEvent,true);
         });
 
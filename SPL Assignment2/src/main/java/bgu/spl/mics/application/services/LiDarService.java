@@ -18,6 +18,7 @@ import java.util.List;
 public class LiDarService extends MicroService {
 
     private final LiDarWorkerTracker MyLiDar;
+    private final ServiceMetrics Metrics;
     /**
      * Constructor for LiDarService.
      *
@@ -26,6 +27,7 @@ public class LiDarService extends MicroService {
     public LiDarService(LiDarWorkerTracker LiDarWorkerTracker) {
         super("LiDarService " + LiDarWorkerTracker.getId());
         this.MyLiDar = LiDarWorkerTracker;
+        this.Metrics = ServiceMetrics.register(this);
     }
 
     /**
@@ -36,11 +38,19 @@ public class LiDarService extends MicroService {
     @Override
     protected void initialize() {
 
+        // measure the callback time, reported per tick in the service metrics
+        timeCallbacks();
+
+        // the ticks at which the connection is lost must not be skipped
+        for (int tick : MyLiDar.getLiDarDataBase().getErrorTicks())
+            WakeUpRegistry.getInstance().wakeUpAt(tick);
+
         // subscribe to TickBroadcast. callback: when MyLiDar can send an event
         // it sends TrackedObjectEvent created from his lastTrackedObjects field
 
-        subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {
+        subscribeBroadcast(TickBroadcast.class, Metrics.countingDelivered(tick -> true, TickBroadcast::getTick), tickBroadcast -> {
             int currTick = tickBroadcast.getTick();
+            Metrics.tickProcessed(currTick, getCallbackNanos());
             // checking for an error at this tick
             if (MyLiDar.getLiDarDataBase().ErrorAtTick(currTick)) {
                 // create an OutputError file, send CrashedBroadcast,set status to error and terminate
@@ -51,6 +61,9 @@ public class LiDarService extends MicroService {
                 this.terminate();
             }
             if (MyLiDar.isUp()) {
+                // all the events ready at this tick are published together as a single batch
+                List<TrackedObjectsEvent> readyEvents = new ArrayList<>();
+                List<TrackedObjectsBroadcast> readyBroadcasts = new ArrayList<>();
                 for (Integer LiDarIsReady : MyLiDar.getTrackObjectsMap().keySet()) {
                     // extracting the list of lists in the key lidar is ready
                     List<List<TrackedObject>> currentList = MyLiDar.getTrackObjectsMap().get(LiDarIsReady);
@@ -69,9 +82,9 @@ public class LiDarService extends MicroService {
                             // be equal to all of them because detectionTime + lidar freq = LiDarIsReady
                             int detectionTime = LiDarIsReady - MyLiDar.getFrequency();
                             TrackedObjectsEvent tempTrackedObjectsEvent = new TrackedObjectsEvent(tempList, detectionTime);
-                            sendEvent(tempTrackedObjectsEvent);
+                            readyEvents.add(tempTrackedObjectsEvent);
                             // notify the service manager
-                            sendBroadcast(new TrackedObjectsBroadcast());
+                            readyBroadcasts.add(TrackedObjectsBroadcast.INSTANCE);
                             currentList.remove(tempList);
                             if (currentList.isEmpty()) {
                                 // remove those TrackObjects from the map of TrackObjects need to be sent.
@@ -81,7 +94,8 @@ public class LiDarService extends MicroService {
                     }
 
                 }
-
+                sendEvents(readyEvents);
+                sendBroadcastBatch(readyBroadcasts);
             }
         });
 
@@ -102,10 +116,15 @@ public class LiDarService extends MicroService {
 
         // subscribe to DetectedObjectsEvent. callback: process the data from
         // the detected objects event and update MYLiDar lastTrackedObjects.
-        subscribeEvent(DetectObjectsEvent.class, event -> {
+        // events are routed by their first object id, so an object detected
+        // first is always tracked by the same LiDar worker
+        subscribeEvent(DetectObjectsEvent.class, LiDarService::routingKey, event -> {
             List<TrackedObject> lastTrackedObjects = MyLiDar.processDetectedObjectsEvent(event);
             int LiDarIsReady = event.getDetectionTick() + MyLiDar.getFrequency();
             MyLiDar.addToMap(LiDarIsReady , lastTrackedObjects);
+            // the objects are sent at LiDarIsReady, or at the tick after the event
+            // was sent if that is later, so that tick must not be skipped
+            WakeUpRegistry.getInstance().wakeUpAt(Math.max(LiDarIsReady, event.getSendingTick() + 1));
             MyLiDar.setLastDetectionTick(event.getDetectionTick());
             MyLiDar.setLastSentTick(event.getSendingTick());
         } );
@@ -117,4 +136,23 @@ public class LiDarService extends MicroService {
             terminate();
         });
     }
+
+    /**
+     * An event carries every object a camera detected at one tick, and is
+     * counted as a whole by the SensorManagerService, so it cannot be split
+     * per object. It is routed by the id of its first object instead: events
+     * whose first object is the same always reach the same LiDar worker,
+     * while the other objects of an event follow that first object. Keying
+     * by the whole list of ids would send the same object to different
+     * workers whenever the objects detected with it change.
+     *
+     * @return the routing key of {@code event}, the detection tick if no
+     *         object was detected.
+     */
+    private static Object routingKey(DetectObjectsEvent event) {
+        List<DetectedObject> objects = event.getStampedDetectedObjects().getDetectedObjects();
+        if (objects.isEmpty())
+            return event.getDetectionTick();
+        return objects.get(0).getId();
+    }
 }
@@ -17,6 +17,9 @@ import java.util.List;
 public class PoseService extends MicroService {
 
     private final GPSIMU gpsimu;
+    // the last tick a pose was sent for
+    private int LastTick;
+    private final ServiceMetrics Metrics;
     private static final List<Pose> poses = new ArrayList<>();
 
     public static List<Pose> getPoses() {
@@ -31,6 +34,8 @@ public class PoseService extends MicroService {
     public PoseService(GPSIMU gpsimu) {
         super("The PoseService");
         this.gpsimu = gpsimu;
+        this.LastTick = 0;
+        this.Metrics = ServiceMetrics.register(this);
     }
 
     /**
@@ -40,13 +45,21 @@ public class PoseService extends MicroService {
     @Override
     protected void initialize() {
 
+        // measure the callback time, reported per tick in the service metrics
+        timeCallbacks();
+
         // subscribe to TickBroadcast. callback: each tick send a PoseEvent
-        // with the current pose.
-        subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {
-            gpsimu.setCurrentTick(tickBroadcast.getTick());
-            Pose currentPose = gpsimu.getCurrentPose();
-            poses.add(currentPose);
-            sendEvent(new PoseEvent(currentPose));
+        // with the current pose. when the TimeService skips idle ticks the
+        // poses of the skipped ticks are sent first, in order.
+        subscribeBroadcast(TickBroadcast.class, Metrics.countingDelivered(tick -> true, TickBroadcast::getTick), tickBroadcast -> {
+            Metrics.tickProcessed(tickBroadcast.getTick(), getCallbackNanos());
+            for (int tick = LastTick + 1; tick <= tickBroadcast.getTick(); tick++) {
+                gpsimu.setCurrentTick(tick);
+                Pose currentPose = gpsimu.getCurrentPose();
+                poses.add(currentPose);
+                sendEvent(new PoseEvent(currentPose));
+            }
+            LastTick = tickBroadcast.getTick();
 
         } );
 
@@ -53,7 +53,7 @@ public class SensorManagerService extends MicroService {
             // unused Broadcast right now
             if (RemainingDetectedEvents == 0 && UpSensors == 0) {
                 // sending broadcast to the fusionSlam notify it that all sensors have terminated
-                sendBroadcast(new AllSensorsTermainatedBroadcast());
+                sendBroadcast(AllSensorsTermainatedBroadcast.INSTANCE);
             }
         });
 
@@ -61,7 +61,7 @@ public class SensorManagerService extends MicroService {
             RemainingTrackedEvents --;
             if (RemainingTrackedEvents == 0) {
                 // set the all the LiDars down
-                sendBroadcast(new LiDarTerminationBroadcast());
+                sendBroadcast(LiDarTerminationBroadcast.INSTANCE);
             }
 
         });
@@ -69,7 +69,7 @@ public class SensorManagerService extends MicroService {
         subscribeBroadcast(LandmarkBroadcast.class, b->{
             RemainingFusionEvents --;
             if (RemainingFusionEvents == 0) {
-                sendBroadcast(new OutputBroadcast());
+                sendBroadcast(OutputBroadcast.INSTANCE);
                 terminate();
             }
         });
@@ -1,20 +1,54 @@
 package bgu.spl.mics.application.services;
 
-import bgu.spl.mics.Broadcast;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.MicroServiceThreads;
+import bgu.spl.mics.TickSource;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.ServiceMetrics;
 import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.WakeUpRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * TimeService acts as the global timer for the system, broadcasting TickBroadcast messages
  * at regular intervals and controlling the simulation's duration.
  */
-public class TimeService extends MicroService {
+public class TimeService extends MicroService implements TickSource {
+
+    // the time before a deadline spent spinning instead of parked, parking may wake up that late
+    private static final long SPIN_NANOS = 50_000;
+    // the number of tick messages created at once
+    private static final int TICK_BLOCK = 1024;
+    // the overrun histogram bucket i counts the ticks sent less than 2^i microseconds late, and at least 2^(i-1)
+    public static final int OVERRUN_BUCKETS = 32;
 
-    private final int TickTime;
+    private final long TickNanos;
     private int CurrentTick;
     private final int Duration;
+    // the tick messages of the ticks from TicksFrom on, created a block at a
+    // time so that ticking does not allocate on every tick, whatever the duration
+    private final TickBroadcast[] Ticks;
+    private long TicksFrom;
+    // true when an executor advances the clock instead of the tick thread
+    private boolean External;
+    // true when a tick is sent once the previous one was handled, instead of after TickTime
+    private final boolean VirtualTime;
+    // how late the ticks were sent in real time, written by the tick thread only
+    private final AtomicLongArray OverrunHistogram;
+    private volatile long MaxOverrun;
+    private volatile long TotalOverrun;
+    private volatile int RealTimeTicks;
+    // true when a tick is sent only once every subscriber handled the previous one
+    private boolean TickBarrier;
+    // true when the clock jumps to the next tick registered in the WakeUpRegistry
+    private boolean SkipIdleTicks;
+    // the service metrics are printed every MetricsDumpInterval ticks, never if 0
+    private int MetricsDumpInterval;
+    private int NextMetricsDump;
 
     /**
      * Constructor for TimeService.
@@ -23,10 +57,47 @@ public class TimeService extends MicroService {
      * @param Duration  The total number of ticks before the service terminates.
      */
     public TimeService(int TickTime, int Duration, int duration) {
+        this(TickTime, Duration, duration, false);
+    }
+
+    /**
+     * Constructor for TimeService, running in virtual time if {@code VirtualTime}
+     * is true: the next tick is sent as soon as every message of the current
+     * tick was handled, and the messages they caused, instead of after
+     * TickTime milliseconds. A recorded run is then replayed as fast as the
+     * services handle it, with the same ticks in the same order. Must be
+     * constructed before the other services are started.
+     *
+     * @param TickTime    The duration of each tick in milliseconds, in real time.
+     * @param Duration    The total number of ticks before the service terminates.
+     * @param VirtualTime Whether ticks are sent as fast as they are handled.
+     */
+    public TimeService(int TickTime, int Duration, int duration, boolean VirtualTime) {
+        this(TickTime, TimeUnit.MILLISECONDS, duration, VirtualTime);
+    }
+
+    /**
+     * Constructor for TimeService with a tick time of any resolution, e.g.
+     * 250 microseconds.
+     *
+     * @param TickTime    The duration of each tick, in real time.
+     * @param unit        The {@link TimeUnit} of TickTime.
+     * @param Duration    The total number of ticks before the service terminates.
+     * @param VirtualTime Whether ticks are sent as fast as they are handled.
+     */
+    public TimeService(long TickTime, TimeUnit unit, int Duration, boolean VirtualTime) {
         super("TimeService");
-        this.TickTime = TickTime;
-        this.Duration = duration;
+        if (TickTime < 0)
+            throw new IllegalArgumentException("tick time must not be negative");
+        this.VirtualTime = VirtualTime;
+        if (VirtualTime)
+            trackQuiescence();
+        this.TickNanos = unit.toNanos(TickTime);
+        this.Duration = Duration;
         this.CurrentTick = 0;
+        this.Ticks = new TickBroadcast[TICK_BLOCK];
+        this.TicksFrom = -TICK_BLOCK;
+        this.OverrunHistogram = new AtomicLongArray(OVERRUN_BUCKETS);
     }
 
     /**
@@ -36,29 +107,218 @@ public class TimeService extends MicroService {
      */
     @Override
     protected void initialize() {
+        if (External)
+            return;
         // we want a different thread to run this method for not blocking the event loop
-        //of this microservice when we sleep for tick time.
+        //of this microservice when we sleep for tick time. it is a virtual thread
+        // like the microservices themselves when virtual threads are enabled.
 
-        Thread TickThread = new Thread(() -> {
+        MicroServiceThreads.start(() -> {
 
             try {
-                while (Duration > CurrentTick) {
-                    CurrentTick ++;
-                    StatisticalFolder.getInstance().incrementSystemRuntine(1);
-                    Broadcast TickBroadcast = new TickBroadcast(CurrentTick);
-                    sendBroadcast(TickBroadcast);
-                    Thread.sleep(TickTime);
+                if (VirtualTime) {
+                    while (advance())
+                        awaitQuiescence();
+                } else {
+                    runRealTime();
                 }
-                // making all other sensors to stop when tick = duration
-                sendBroadcast(new TerminatedBroadcast());
-                terminate();
 
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
 
             }
         } );
-        TickThread.start();
 
     }
+
+    /**
+     * Sends the ticks at a fixed rate: every tick has an absolute deadline on
+     * the nanosecond clock, one tick time after the deadline of the previous
+     * one, so the time spent sending a tick and waking up late never add up
+     * to drift. A late tick is sent right away and the next deadlines stay
+     * the same, so the run catches up.
+     */
+    private void runRealTime() throws InterruptedException {
+        long deadline = System.nanoTime();
+        while (true) {
+            long overrun = System.nanoTime() - deadline;
+            if (!nextTick())
+                return;
+            if (TickBarrier)
+                sendBroadcastAndAwait(tickMessage(CurrentTick));
+            else
+                sendBroadcast(tickMessage(CurrentTick));
+            recordOverrun(overrun);
+            // a tick held back by the barrier is not followed by a burst, the schedule moves instead
+            if (TickBarrier && overrun > 0)
+                deadline += overrun;
+            deadline += TickNanos;
+            awaitDeadline(deadline);
+        }
+    }
+
+    /**
+     * Parks until shortly before {@code deadline} and spins the rest of the
+     * way, parking alone may overshoot by tens of microseconds.
+     */
+    private static void awaitDeadline(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        while (deadline - System.nanoTime() > 0) {
+            // busy wait, the deadline is a few microseconds away
+        }
+    }
+
+    /**
+     * @return the message of {@code tick}, creating the messages of the next
+     *         block of ticks if it is not in the current one.
+     */
+    private TickBroadcast tickMessage(int tick) {
+        long offset = tick - TicksFrom;
+        if (offset < 0 || offset >= TICK_BLOCK) {
+            TicksFrom = tick;
+            offset = 0;
+            int count = (int) Math.min(TICK_BLOCK, (long) Duration - tick + 1);
+            for (int i = 0; i < count; i++)
+                Ticks[i] = new TickBroadcast(tick + i);
+        }
+        return Ticks[(int) offset];
+    }
+
+    /**
+     * Adds how late a tick was sent to the overrun statistics.
+     */
+    private void recordOverrun(long overrun) {
+        overrun = Math.max(overrun, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(overrun / 1000), OVERRUN_BUCKETS - 1);
+        OverrunHistogram.lazySet(bucket, OverrunHistogram.get(bucket) + 1);
+        TotalOverrun += overrun;
+        RealTimeTicks++;
+        if (overrun > MaxOverrun)
+            MaxOverrun = overrun;
+    }
+
+    /**
+     * @return the largest delay of a tick after its deadline, in nanoseconds.
+     */
+    public long getMaxOverrunNanos() {
+        return MaxOverrun;
+    }
+
+    /**
+     * @return the average delay of the ticks sent in real time after their
+     *         deadline, in nanoseconds, 0 if none was sent.
+     */
+    public long getMeanOverrunNanos() {
+        int ticks = RealTimeTicks;
+        return ticks == 0 ? 0 : TotalOverrun / ticks;
+    }
+
+    /**
+     * @return the number of ticks sent in real time in each bucket of delay
+     *         after their deadline, see {@link #OVERRUN_BUCKETS}.
+     */
+    public long[] getOverrunMicrosHistogram() {
+        long[] counts = new long[OVERRUN_BUCKETS];
+        for (int i = 0; i < OVERRUN_BUCKETS; i++)
+            counts[i] = OverrunHistogram.get(i);
+        return counts;
+    }
+
+    /**
+     * Makes every tick a phase in real time: the next tick is sent at its
+     * deadline, or once every service subscribed to ticks has handled the
+     * current one if that is later, so no service ever has a backlog of
+     * ticks. A tick held back moves the deadlines of the next ones, so each
+     * tick is handled within its own tick time or reported late: how late a
+     * tick was sent is how much longer than a tick time the slowest service
+     * took to handle the previous one (see {@link #getOverrunMicrosHistogram()}).
+     * Has no effect in virtual time, or when an executor advances the clock,
+     * which both wait for the tick to be handled already. Must be called
+     * before the service is started.
+     *
+     * @param TickBarrier Whether to wait for every tick to be handled.
+     */
+    public void setTickBarrier(boolean TickBarrier) {
+        this.TickBarrier = TickBarrier;
+    }
+
+    /**
+     * Makes the clock jump from the current tick straight to the earliest tick
+     * a service registered in the {@link WakeUpRegistry}, or to the last tick
+     * of the duration, instead of sending every tick. The system runtime still
+     * counts every tick. Only used in virtual time or when an executor advances
+     * the clock, where the next tick is decided once the current one was fully
+     * handled, so every service registered what it needs. Must be called
+     * before the service is started.
+     *
+     * @param SkipIdleTicks Whether to skip the ticks no service registered.
+     */
+    public void setSkipIdleTicks(boolean SkipIdleTicks) {
+        this.SkipIdleTicks = SkipIdleTicks;
+    }
+
+    /**
+     * Prints the tick metrics of every service (see {@link ServiceMetrics})
+     * to the standard output every {@code MetricsDumpInterval} ticks. They are
+     * also written to the output file at the end of the run. Must be called
+     * before the service is started.
+     *
+     * @param MetricsDumpInterval The number of ticks between two dumps, 0 to never print them.
+     */
+    public void setMetricsDumpInterval(int MetricsDumpInterval) {
+        if (MetricsDumpInterval < 0)
+            throw new IllegalArgumentException("metrics dump interval must not be negative");
+        this.MetricsDumpInterval = MetricsDumpInterval;
+        this.NextMetricsDump = MetricsDumpInterval;
+    }
+
+    @Override
+    public void driveExternally() {
+        this.External = true;
+    }
+
+    /**
+     * Sends the next TickBroadcast or, once the duration has passed, the
+     * TerminatedBroadcast.
+     *
+     * @return false once the TerminatedBroadcast was sent.
+     */
+    @Override
+    public boolean advance() {
+        if (!nextTick())
+            return false;
+        sendBroadcast(tickMessage(CurrentTick));
+        return true;
+    }
+
+    /**
+     * Moves the clock to the next tick, which the caller sends, or sends the
+     * TerminatedBroadcast once the duration has passed.
+     *
+     * @return false once the TerminatedBroadcast was sent.
+     */
+    private boolean nextTick() {
+        if (Duration > CurrentTick) {
+            int next = CurrentTick + 1;
+            if (SkipIdleTicks && (VirtualTime || External))
+                next = Math.min(WakeUpRegistry.getInstance().nextAfter(CurrentTick), Duration);
+            StatisticalFolder.getInstance().incrementSystemRuntine(next - CurrentTick);
+            CurrentTick = next;
+            ServiceMetrics.setCurrentTick(CurrentTick);
+            if (MetricsDumpInterval > 0 && CurrentTick >= NextMetricsDump) {
+                System.out.println(ServiceMetrics.report());
+                NextMetricsDump = CurrentTick + MetricsDumpInterval;
+            }
+            return true;
+        }
+        // making all other sensors to stop when tick = duration
+        sendBroadcast(TerminatedBroadcast.INSTANCE);
+        terminate();
+        return false;
+    }
 }
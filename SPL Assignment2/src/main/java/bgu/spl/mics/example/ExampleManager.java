@@ -1,5 +1,6 @@
 package bgu.spl.mics.example;
 
+import bgu.spl.mics.MicroServiceThreads;
 import bgu.spl.mics.example.services.ExampleBroadcastListenerService;
 import bgu.spl.mics.example.services.ExampleMessageSenderService;
 import bgu.spl.mics.example.services.ExampleEventHandlerService;
@@ -39,7 +40,7 @@ public class ExampleManager {
                                     throw new IllegalArgumentException("unknown service type, supported types: " + serviceCreators.keySet());
                                 }
 
-                                new Thread(creator.create(params[2], Arrays.copyOfRange(params, 3, params.length))).start();
+                                MicroServiceThreads.start(creator.create(params[2], Arrays.copyOfRange(params, 3, params.length)));
                             } catch (IllegalArgumentException ex) {
                                 System.out.println("Error: " + ex.getMessage());
                             }
@@ -0,0 +1,165 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ActorSchedulerTest {
+
+    private static final class Ping implements Broadcast {
+        final int sender;
+        final int number;
+
+        Ping(int sender, int number) {
+            this.sender = sender;
+            this.number = number;
+        }
+    }
+
+    private static final class Stop implements Broadcast {
+    }
+
+    private static final class Crash implements Broadcast {
+    }
+
+    /**
+     * Passes every {@link Ping} to {@code onPing} until a {@link Stop}.
+     */
+    private static final class Actor extends MicroService {
+        private final int batchSize;
+        private final Consumer<Ping> onPing;
+        final CountDownLatch subscribed = new CountDownLatch(1);
+
+        Actor(String name, int batchSize, Consumer<Ping> onPing) {
+            super(name);
+            this.batchSize = batchSize;
+            this.onPing = onPing;
+        }
+
+        @Override
+        protected void initialize() {
+            setMessageBatchSize(batchSize);
+            subscribeBroadcast(Ping.class, onPing::accept);
+            subscribeBroadcast(Stop.class, stop -> terminate());
+            subscribeBroadcast(Crash.class, crash -> {
+                throw new IllegalStateException("crashed on purpose");
+            });
+            subscribed.countDown();
+        }
+    }
+
+    private final MessageBusImpl bus = MessageBusImpl.getInstance();
+    private ActorScheduler scheduler;
+
+    private Actor start(Actor actor) throws InterruptedException {
+        scheduler.start(actor);
+        assertTrue(actor.subscribed.await(5, TimeUnit.SECONDS));
+        return actor;
+    }
+
+    @AfterEach
+    void stopAll() throws InterruptedException {
+        bus.sendBroadcast(new Stop());
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        scheduler.shutdown();
+    }
+
+    @Test
+    void callbacksOfOneServiceNeverOverlap() throws InterruptedException {
+        scheduler = new ActorScheduler(4);
+        int services = 8, senders = 4, perSender = 5000;
+        AtomicBoolean overlapped = new AtomicBoolean();
+        AtomicBoolean reordered = new AtomicBoolean();
+        CountDownLatch handled = new CountDownLatch(services * senders * perSender);
+        for (int s = 0; s < services; s++) {
+            AtomicInteger inside = new AtomicInteger();
+            int[] next = new int[senders];
+            start(new Actor("actor " + s, 3, ping -> {
+                if (inside.incrementAndGet() != 1)
+                    overlapped.set(true);
+                // not synchronized: only safe if the callbacks of the service run one at a time
+                if (next[ping.sender]++ != ping.number)
+                    reordered.set(true);
+                inside.decrementAndGet();
+                handled.countDown();
+            }));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < senders; p++) {
+            int sender = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perSender; i++)
+                    bus.sendBroadcast(new Ping(sender, i));
+            }));
+        }
+        threads.forEach(Thread::start);
+        assertTrue(handled.await(30, TimeUnit.SECONDS));
+        for (Thread thread : threads)
+            thread.join();
+        assertFalse(overlapped.get());
+        assertFalse(reordered.get());
+    }
+
+    @Test
+    void noActivationIsLostWhileTheActorYields() throws InterruptedException {
+        scheduler = new ActorScheduler(2);
+        Semaphore handled = new Semaphore(0);
+        start(new Actor("actor", 1, ping -> handled.release()));
+        // every message arrives while the actor is about to, or just did, clear its scheduled flag
+        for (int i = 0; i < 20_000; i++) {
+            bus.sendBroadcast(new Ping(0, i));
+            assertTrue(handled.tryAcquire(5, TimeUnit.SECONDS), "message " + i + " was not handled");
+        }
+    }
+
+    @Test
+    void actorYieldsAfterEachBatchAndIsRescheduled() throws InterruptedException {
+        scheduler = new ActorScheduler(1);
+        List<Integer> numbers = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> leftInBatch = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(7);
+        Actor[] actor = new Actor[1];
+        actor[0] = start(new Actor("actor", 2, ping -> {
+            numbers.add(ping.number);
+            leftInBatch.add(actor[0].undispatched());
+            done.countDown();
+        }));
+        List<Broadcast> pings = new ArrayList<>();
+        for (int i = 0; i < 7; i++)
+            pings.add(new Ping(0, i));
+        // all waiting at once, handled 2 per run of the actor
+        bus.sendBroadcastBatch(pings);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), numbers);
+        assertEquals(Arrays.asList(1, 0, 1, 0, 1, 0, 0), leftInBatch);
+    }
+
+    @Test
+    void awaitTerminationWaitsForEveryService() throws InterruptedException {
+        scheduler = new ActorScheduler(2);
+        start(new Actor("first", 1, ping -> { }));
+        start(new Actor("second", 1, ping -> { }));
+        assertFalse(scheduler.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+        // a service whose callback throws terminates as well
+        bus.sendBroadcast(new Crash());
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        start(new Actor("third", 1, ping -> { }));
+        assertFalse(scheduler.awaitTermination(50, TimeUnit.MILLISECONDS));
+        bus.sendBroadcast(new Stop());
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
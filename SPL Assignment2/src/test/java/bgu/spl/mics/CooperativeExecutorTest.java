@@ -0,0 +1,131 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.services.TimeService;
+import org.junit.jupiter.api.Test;
+
+class CooperativeExecutorTest {
+
+    private static final class Job implements Event<String> {
+        final String sender;
+        final int tick;
+        final int number;
+
+        Job(String sender, int tick, int number) {
+            this.sender = sender;
+            this.tick = tick;
+            this.number = number;
+        }
+
+        @Override
+        public String toString() {
+            return sender + "#" + tick + "." + number;
+        }
+    }
+
+    private static final class Handled implements Broadcast {
+        final String job;
+
+        Handled(String job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * Sends as many jobs as the tick number on every tick, and logs the
+     * completions it hears of.
+     */
+    private static final class Sender extends MicroService {
+        private final List<String> log;
+
+        Sender(String name, List<String> log) {
+            super(name);
+            this.log = log;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeBroadcast(TickBroadcast.class, tick -> {
+                log.add(getName() + " tick " + tick.getTick());
+                for (int i = 0; i < tick.getTick(); i++)
+                    sendEvent(new Job(getName(), tick.getTick(), i));
+            });
+            subscribeBroadcast(Handled.class, handled -> log.add(getName() + " heard " + handled.job));
+            subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+        }
+    }
+
+    /**
+     * Completes every job and tells the senders.
+     */
+    private static final class Worker extends MicroService {
+        private final List<String> log;
+
+        Worker(String name, List<String> log) {
+            super(name);
+            this.log = log;
+        }
+
+        @Override
+        protected void initialize() {
+            setMessageBatchSize(2);
+            subscribeEvent(Job.class, job -> {
+                log.add(getName() + " handles " + job);
+                complete(job, getName());
+                sendBroadcast(new Handled(job.toString()));
+            });
+            subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+        }
+    }
+
+    private static List<String> runOnce() {
+        List<String> log = new ArrayList<>();
+        CooperativeExecutor executor = new CooperativeExecutor();
+        executor.add(new TimeService(0, TimeUnit.MILLISECONDS, 6, false));
+        executor.add(new Sender("first sender", log));
+        executor.add(new Sender("second sender", log));
+        for (int w = 0; w < 3; w++)
+            executor.add(new Worker("worker " + w, log));
+        assertTrue(executor.run());
+        return log;
+    }
+
+    @Test
+    void sameConfigurationHandlesTheSameMessagesInTheSameOrder() {
+        List<String> first = runOnce();
+        List<String> second = runOnce();
+        // per sender: 6 ticks, then 1 + 2 + ... + 6 jobs, each handled once and heard of by both senders
+        assertEquals(2 * (6 + 21 + 2 * 21), first.size());
+        assertEquals(first, second);
+    }
+
+    @Test
+    void servicesThatNeverTerminateAreUnregistered() {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        List<String> log = new ArrayList<>();
+        CooperativeExecutor executor = new CooperativeExecutor();
+        // without a tick source nothing ends the run once the messages are handled
+        MicroService worker = new MicroService("worker") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(Job.class, job -> {
+                    log.add("handled " + job);
+                    complete(job, "done");
+                });
+                sendEvent(new Job("worker", 0, 0));
+            }
+        };
+        executor.add(worker);
+        assertFalse(executor.run());
+        assertEquals(1, log.size());
+        assertNull(bus.sendEvent(new Job("test", 0, 0)));
+        assertThrows(IllegalStateException.class, () -> bus.pollMessages(worker, new ArrayList<>(), 1));
+    }
+}
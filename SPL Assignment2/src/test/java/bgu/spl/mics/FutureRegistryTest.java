@@ -0,0 +1,61 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class FutureRegistryTest {
+
+	private static class TestEvent implements Event<Integer> {
+	}
+
+	@Test
+	void completedFuturesDoNotCountTowardsMaxPending() {
+		FutureRegistry registry = new FutureRegistry(1, TimeUnit.HOURS, 1000);
+		TestEvent pending = new TestEvent();
+		Future<Integer> pendingFuture = new Future<>();
+		registry.register(pending, pendingFuture, -1);
+		for (int i = 0; i < 1500; i++) {
+			TestEvent e = new TestEvent();
+			Future<Integer> future = new Future<>();
+			registry.register(e, future, -1);
+			registry.complete(e, i);
+			assertEquals(i, future.get().intValue());
+		}
+		assertFalse(pendingFuture.isDone());
+		assertEquals(1, registry.size());
+		registry.complete(pending, 7);
+		assertEquals(7, pendingFuture.get().intValue());
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	void oldestPendingFutureIsEvictedBeyondMaxPending() {
+		FutureRegistry registry = new FutureRegistry(1, TimeUnit.HOURS, 2);
+		Future<Integer> first = new Future<>();
+		registry.register(new TestEvent(), first, -1);
+		Future<Integer> second = new Future<>();
+		registry.register(new TestEvent(), second, -1);
+		Future<Integer> third = new Future<>();
+		registry.register(new TestEvent(), third, -1);
+		assertTrue(first.isDone());
+		assertThrows(RuntimeException.class, first::get);
+		assertFalse(second.isDone());
+		assertFalse(third.isDone());
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	void expiredFutureIsEvictedOnTheNextRegistration() throws InterruptedException {
+		FutureRegistry registry = new FutureRegistry(1, TimeUnit.MILLISECONDS, 1000);
+		Future<Integer> old = new Future<>();
+		registry.register(new TestEvent(), old, -1);
+		Thread.sleep(5);
+		Future<Integer> fresh = new Future<>();
+		registry.register(new TestEvent(), fresh, -1);
+		assertTrue(old.isDone());
+		assertFalse(fresh.isDone());
+	}
+}
@@ -0,0 +1,79 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class FutureTest {
+
+	@Test
+	void allOfKeepsTheOrderOfTheFutures() {
+		Future<Integer> first = new Future<>(), second = new Future<>();
+		Future<List<Integer>> all = Future.allOf(Arrays.asList(first, null, second));
+		second.resolve(2);
+		assertFalse(all.isDone());
+		first.resolve(1);
+		assertEquals(Arrays.asList(1, null, 2), all.get());
+		assertEquals(Collections.emptyList(), Future.allOf(new ArrayList<Future<Integer>>()).get());
+	}
+
+	@Test
+	void anyOfResolvesWithTheFirstResult() {
+		Future<Integer> first = new Future<>(), second = new Future<>();
+		Future<Integer> any = Future.anyOf(Arrays.asList(null, first, second));
+		assertFalse(any.isDone());
+		second.resolve(2);
+		assertEquals(2, any.get().intValue());
+		first.resolve(1);
+		assertEquals(2, any.get().intValue());
+	}
+
+	@Test
+	void anyOfNoFutureResolvesWithNull() {
+		Future<Integer> none = Future.anyOf(new ArrayList<Future<Integer>>());
+		assertTrue(none.isDone());
+		assertNull(none.get());
+		// what sendEvents returns when nobody is subscribed to the events
+		Future<Integer> unsubscribed = Future.anyOf(Arrays.asList(null, null));
+		assertTrue(unsubscribed.isDone());
+		assertNull(unsubscribed.get());
+	}
+
+	@Test
+	void thenComposeChainsTheNextStep() {
+		Future<Integer> first = new Future<>(), second = new Future<>();
+		Future<String> chained = first.thenCompose(result -> {
+			assertEquals(1, result.intValue());
+			return second.thenApply(next -> result + "," + next);
+		});
+		first.resolve(1);
+		assertFalse(chained.isDone());
+		second.resolve(2);
+		assertEquals("1,2", chained.get());
+
+		Future<Integer> start = new Future<>();
+		Future<Integer> unsubscribed = start.thenCompose(result -> null);
+		start.resolve(1);
+		assertTrue(unsubscribed.isDone());
+		assertNull(unsubscribed.get());
+	}
+
+	@Test
+	void toCompletableFutureFollowsButDoesNotResolveTheFuture() {
+		Future<Integer> future = new Future<>();
+		CompletableFuture<Integer> completable = future.toCompletableFuture();
+		completable.complete(7);
+		assertFalse(future.isDone());
+
+		CompletableFuture<Integer> bridged = future.toCompletableFuture();
+		future.resolve(3);
+		assertEquals(3, bridged.join().intValue());
+		assertEquals(7, completable.join().intValue());
+	}
+}
@@ -0,0 +1,91 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+
+	private static final int KEYS = 10_000;
+
+	private static MicroService service(String name) {
+		return new MicroService(name) {
+			@Override
+			protected void initialize() {
+			}
+		};
+	}
+
+	private static Map<MicroService, Integer> spread(HashRing ring) {
+		Map<MicroService, Integer> counts = new HashMap<>();
+		for (int key = 0; key < KEYS; key++)
+			counts.merge(ring.owner("key " + key), 1, Integer::sum);
+		return counts;
+	}
+
+	@Test
+	void servicesWithTheSameNameShareTheKeys() {
+		MicroService[] workers = { service("worker"), service("worker"), service("worker") };
+		Map<MicroService, Integer> counts = spread(new HashRing(workers));
+		for (MicroService worker : workers)
+			assertTrue(counts.getOrDefault(worker, 0) > KEYS / 6, "unbalanced split " + counts.values());
+	}
+
+	@Test
+	void sameSubscribersBuildTheSameRing() {
+		MicroService[] first = { service("a"), service("b"), service("b") };
+		MicroService[] second = { service("a"), service("b"), service("b") };
+		HashRing ringOfFirst = new HashRing(first), ringOfSecond = new HashRing(second);
+		for (int key = 0; key < KEYS; key++) {
+			int owner = indexOf(first, ringOfFirst.owner(key));
+			assertEquals(owner, indexOf(second, ringOfSecond.owner(key)));
+		}
+	}
+
+	@Test
+	void removingAServiceOnlyMovesItsKeys() {
+		MicroService a = service("a"), b = service("b"), c = service("c");
+		HashRing before = new HashRing(new MicroService[] { a, b, c });
+		HashRing after = new HashRing(new MicroService[] { a, c });
+		for (int key = 0; key < KEYS; key++) {
+			MicroService owner = before.owner(key);
+			if (owner != b)
+				assertSame(owner, after.owner(key));
+		}
+	}
+
+	@Test
+	void removingOneOfSeveralServicesWithTheSameNameOnlyMovesItsKeys() {
+		MicroService first = service("worker"), second = service("worker"), third = service("worker");
+		HashRing before = new HashRing(new MicroService[] { first, second, third });
+		HashRing after = new HashRing(new MicroService[] { second, third }, before);
+		for (int key = 0; key < KEYS; key++) {
+			MicroService owner = before.owner(key);
+			if (owner != first)
+				assertSame(owner, after.owner(key));
+		}
+		// a new service with the same name takes the points that were freed
+		MicroService fourth = service("worker");
+		HashRing refilled = new HashRing(new MicroService[] { second, third, fourth }, after);
+		for (int key = 0; key < KEYS; key++) {
+			MicroService owner = before.owner(key);
+			assertSame(owner == first ? fourth : owner, refilled.owner(key));
+		}
+	}
+
+	@Test
+	void emptyRingHasNoOwner() {
+		assertNull(new HashRing(new MicroService[0]).owner("key"));
+	}
+
+	private static int indexOf(MicroService[] services, MicroService m) {
+		for (int i = 0; i < services.length; i++) {
+			if (services[i] == m)
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,69 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the throughput of the {@link RingBufferMailbox}, with each
+ * {@link WaitStrategy}, and of the default {@link LockingMailbox} with
+ * several producers and a single consumer, as the message-bus uses them.
+ * In this package to reach the package-private {@link LockingMailbox}.
+ * Run with {@code java bgu.spl.mics.MailboxBenchmark [capacity] [messages per producer]}.
+ */
+public class MailboxBenchmark {
+
+	private static final class Ping implements Message {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+		// the first pass warms up the JIT
+		for (int pass = 0; pass < 2; pass++) {
+			for (int producers = 1; producers <= 8; producers *= 2) {
+				StringBuilder line = new StringBuilder(String.format("%d producers:", producers));
+				line.append(String.format(" locking %,6d ns", run(new LockingMailbox(capacity, OverflowPolicy.BLOCK), producers, messages)));
+				for (WaitStrategy strategy : WaitStrategy.values()) {
+					long nanos = run(new RingBufferMailbox(capacity, OverflowPolicy.BLOCK, strategy), producers, messages);
+					line.append(String.format(", ring %s %,6d ns", strategy, nanos));
+				}
+				if (pass == 1)
+					System.out.println(line + " per message");
+			}
+		}
+	}
+
+	/**
+	 * @return the time per message, in nanoseconds, from the first put to the last take.
+	 */
+	private static long run(Mailbox mailbox, int producers, int messages) throws InterruptedException {
+		Ping ping = new Ping();
+		List<Thread> threads = new ArrayList<>();
+		CountDownLatch start = new CountDownLatch(1);
+		for (int p = 0; p < producers; p++) {
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < messages; i++)
+					mailbox.put(ping);
+			}));
+		}
+		threads.forEach(Thread::start);
+		List<Message> buffer = new ArrayList<>();
+		long total = (long) producers * messages;
+		long begin = System.nanoTime();
+		start.countDown();
+		for (long taken = 0; taken < total; taken += buffer.size()) {
+			buffer.clear();
+			mailbox.drainTo(buffer, MicroService.DEFAULT_BATCH_SIZE);
+		}
+		long nanos = System.nanoTime() - begin;
+		for (Thread thread : threads)
+			thread.join();
+		return nanos / total;
+	}
+}
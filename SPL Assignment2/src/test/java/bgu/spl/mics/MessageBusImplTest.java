@@ -0,0 +1,429 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MessageBusImplTest {
+
+	private static class Numbered implements Broadcast {
+		final int number;
+
+		Numbered(int number) {
+			this.number = number;
+		}
+	}
+
+	private static class Other implements Broadcast {
+	}
+
+	private static class Job implements Event<Integer> {
+		final int number;
+
+		Job(int number) {
+			this.number = number;
+		}
+	}
+
+	private static class Unhandled implements Event<Integer> {
+	}
+
+	private final MessageBusImpl bus = MessageBusImpl.getInstance();
+	private final List<MicroService> registered = new ArrayList<>();
+
+	private MicroService register(String name) {
+		MicroService m = new MicroService(name) {
+			@Override
+			protected void initialize() {
+			}
+		};
+		bus.register(m);
+		registered.add(m);
+		return m;
+	}
+
+	/**
+	 * Takes every message waiting for {@code m} as its event loop would,
+	 * without running callbacks.
+	 */
+	private List<Message> drain(MicroService m) {
+		List<Message> messages = new ArrayList<>();
+		bus.pollMessages(m, messages, Integer.MAX_VALUE);
+		bus.messagesHandled(m, messages);
+		return messages;
+	}
+
+	/**
+	 * Asserts that {@link MessageBusImpl#awaitQuiescence()} returns, or does not
+	 * return, within a short time.
+	 */
+	private void assertQuiescent(boolean expected) throws InterruptedException {
+		Thread waiter = new Thread(() -> {
+			try {
+				bus.awaitQuiescence();
+			} catch (InterruptedException e) {
+				// still waiting, checked below
+			}
+		});
+		waiter.start();
+		waiter.join(expected ? 5000 : 50);
+		boolean returned = !waiter.isAlive();
+		waiter.interrupt();
+		waiter.join();
+		assertEquals(expected, returned);
+	}
+
+	@AfterEach
+	void unregisterAll() {
+		registered.forEach(bus::unregister);
+	}
+
+	@Test
+	void broadcastBatchKeepsTheOrderForEverySubscriber() {
+		MicroService a = register("a"), b = register("b");
+		bus.subscribeBroadcast(Numbered.class, a);
+		bus.subscribeBroadcast(Other.class, a);
+		bus.subscribeBroadcast(Numbered.class, b);
+		Other other = new Other();
+		List<Broadcast> batch = Arrays.asList(new Numbered(1), other, new Numbered(2), new Numbered(3));
+		bus.sendBroadcastBatch(batch);
+		assertEquals(batch, drain(a));
+		assertEquals(Arrays.asList(batch.get(0), batch.get(2), batch.get(3)), drain(b));
+	}
+
+	@Test
+	void broadcastBatchFollowsEarlierBroadcasts() {
+		MicroService a = register("a");
+		bus.subscribeBroadcast(Numbered.class, a);
+		Numbered first = new Numbered(0);
+		bus.sendBroadcast(first);
+		List<Broadcast> batch = Arrays.asList(new Numbered(1), new Numbered(2));
+		bus.sendBroadcastBatch(batch);
+		assertEquals(Arrays.asList(first, batch.get(0), batch.get(1)), drain(a));
+	}
+
+	@Test
+	void sendEventsReturnsTheFuturesInOrder() {
+		MicroService a = register("a"), b = register("b");
+		bus.subscribeEvent(Job.class, a);
+		bus.subscribeEvent(Job.class, b);
+		List<Event<Integer>> events = new ArrayList<>();
+		for (int i = 0; i < 6; i++)
+			events.add(new Job(i));
+		events.add(2, new Unhandled());
+		List<Future<Integer>> futures = bus.sendEvents(events);
+		assertEquals(events.size(), futures.size());
+		assertNull(futures.get(2));
+
+		// round-robin splits the jobs between a and b, each queue keeps the order they were sent in
+		List<Message> received = new ArrayList<>(drain(a));
+		List<Message> ofB = drain(b);
+		assertEquals(3, received.size());
+		assertEquals(3, ofB.size());
+		assertIncreasing(received);
+		assertIncreasing(ofB);
+		received.addAll(ofB);
+		for (Message message : received) {
+			Job job = (Job) message;
+			bus.complete(job, job.number * 10);
+		}
+		for (int i = 0; i < events.size(); i++) {
+			if (i != 2)
+				assertEquals(((Job) events.get(i)).number * 10, futures.get(i).get().intValue());
+		}
+	}
+
+	@Test
+	void eventDroppedByAFullQueueFailsRightAway() {
+		MicroService a = register("a");
+		bus.subscribeEvent(Job.class, a);
+		bus.configureMailbox(a, 1, OverflowPolicy.DROP_NEWEST);
+		Future<Integer> kept = bus.sendEvent(new Job(1));
+		Future<Integer> dropped = bus.sendEvent(new Job(2));
+		assertFalse(kept.isDone());
+		assertTrue(dropped.isDone());
+		assertThrows(EventExpiredException.class, dropped::get);
+
+		bus.configureMailbox(a, 1, OverflowPolicy.DROP_OLDEST);
+		Future<Integer> newest = bus.sendEvent(new Job(3));
+		assertThrows(EventExpiredException.class, kept::get);
+		assertFalse(newest.isDone());
+		assertEquals(1, bus.getPendingFuturesCount());
+	}
+
+	@Test
+	void eventsDiscardedByARingQueueFail() {
+		bus.setMailboxFactory(RingBufferMailbox.factory(WaitStrategy.BLOCKING));
+		bus.setDefaultMailboxPolicy(2, OverflowPolicy.DROP_NEWEST);
+		try {
+			MicroService a = register("a");
+			bus.subscribeEvent(Job.class, a);
+			Future<Integer> first = bus.sendEvent(new Job(1));
+			Future<Integer> second = bus.sendEvent(new Job(2));
+			Future<Integer> dropped = bus.sendEvent(new Job(3));
+			assertThrows(EventExpiredException.class, dropped::get);
+			assertFalse(first.isDone());
+			bus.unregister(a);
+			assertThrows(EventExpiredException.class, first::get);
+			assertThrows(EventExpiredException.class, second::get);
+			assertEquals(0, bus.getPendingFuturesCount());
+		} finally {
+			bus.setMailboxFactory(LockingMailbox::new);
+			bus.setDefaultMailboxPolicy(Integer.MAX_VALUE, OverflowPolicy.BLOCK);
+		}
+	}
+
+	@Test
+	void awaitedBroadcastDroppedByAFullQueueCountsAsAcknowledged() throws InterruptedException {
+		MicroService a = register("a");
+		bus.subscribeBroadcast(Numbered.class, a);
+		bus.configureMailbox(a, 1, OverflowPolicy.DROP_NEWEST);
+		bus.sendBroadcast(new Numbered(0));
+		Thread sender = new Thread(() -> {
+			try {
+				bus.sendBroadcastAndAwait(new Numbered(1));
+			} catch (InterruptedException e) {
+				// the test fails below
+			}
+		});
+		sender.start();
+		sender.join(5000);
+		boolean waiting = sender.isAlive();
+		sender.interrupt();
+		assertFalse(waiting);
+		assertEquals(0, ((Numbered) drain(a).get(0)).number);
+	}
+
+	@Test
+	void eventSentToAllGathersEveryResult() {
+		MicroService a = register("a"), b = register("b"), c = register("c");
+		for (MicroService m : Arrays.asList(a, b, c))
+			bus.subscribeEvent(Job.class, m);
+		Job job = new Job(1);
+		Future<List<Integer>> future = bus.sendEventToAll(job);
+		for (MicroService m : Arrays.asList(b, c, a))
+			assertSame(job, drain(m).get(0));
+		bus.complete(job, 2);
+		bus.complete(job, 3);
+		assertFalse(future.isDone());
+		bus.complete(job, 1);
+		assertEquals(Arrays.asList(2, 3, 1), future.get());
+		assertEquals(0, bus.getPendingFuturesCount());
+	}
+
+	@Test
+	void eventSentToAllResolvesOnceTheQuorumIsReached() {
+		MicroService a = register("a"), b = register("b"), c = register("c");
+		for (MicroService m : Arrays.asList(a, b, c))
+			bus.subscribeEvent(Job.class, m);
+		Job first = new Job(1);
+		Future<List<Integer>> firstResult = bus.sendEventToAll(first, 1);
+		bus.complete(first, 10);
+		assertEquals(Arrays.asList(10), firstResult.get());
+		// the copies still waiting are dropped when they are taken out of their queues
+		assertTrue(drain(b).isEmpty());
+		assertTrue(drain(c).isEmpty());
+
+		Job second = new Job(2);
+		Future<List<Integer>> quorum = bus.sendEventToAll(second, 2);
+		bus.complete(second, 20);
+		assertFalse(quorum.isDone());
+		bus.complete(second, 30);
+		assertEquals(Arrays.asList(20, 30), quorum.get());
+		bus.complete(second, 40);
+		assertEquals(Arrays.asList(20, 30), quorum.get());
+	}
+
+	@Test
+	void eventSentToAllFailsOnceADroppedCopyMakesTheQuorumUnreachable() {
+		MicroService a = register("a"), b = register("b"), c = register("c");
+		for (MicroService m : Arrays.asList(a, b, c))
+			bus.subscribeEvent(Job.class, m);
+		Job all = new Job(1);
+		Future<List<Integer>> future = bus.sendEventToAll(all);
+		bus.unregister(a);
+		// the quorum of every copy cannot be reached any more
+		assertThrows(EventExpiredException.class, future::get);
+		bus.complete(all, 2);
+		bus.complete(all, 3);
+		assertEquals(0, bus.getPendingFuturesCount());
+
+		Job two = new Job(2);
+		Future<List<Integer>> quorum = bus.sendEventToAll(two, 1);
+		bus.unregister(b);
+		assertFalse(quorum.isDone());
+		bus.complete(two, 4);
+		assertEquals(Arrays.asList(4), quorum.get());
+		assertEquals(0, bus.getPendingFuturesCount());
+	}
+
+	@Test
+	void lastCopyCompletedAfterADroppedOneSettlesTheFuture() {
+		MicroService a = register("a"), b = register("b");
+		bus.subscribeEvent(Job.class, a);
+		bus.subscribeEvent(Job.class, b);
+		Job job = new Job(1);
+		Future<List<Integer>> future = bus.sendEventToAll(job);
+		bus.unregister(a);
+		bus.complete(job, 1);
+		assertTrue(future.isDone());
+		assertThrows(EventExpiredException.class, future::get);
+		assertEquals(0, bus.getPendingFuturesCount());
+	}
+
+	@Test
+	void cancellingAnEventSentToAllRemovesEveryCopy() {
+		MicroService a = register("a"), b = register("b");
+		bus.subscribeEvent(Job.class, a);
+		bus.subscribeEvent(Job.class, b);
+		Future<List<Integer>> future = bus.sendEventToAll(new Job(1));
+		assertTrue(future.cancel());
+		assertTrue(drain(a).isEmpty());
+		assertTrue(drain(b).isEmpty());
+		assertEquals(0, bus.getPendingFuturesCount());
+	}
+
+	@Test
+	void awaitQuiescenceReturnsOnceEveryMessageWasHandled() throws InterruptedException {
+		bus.trackQuiescence();
+		assertQuiescent(true);
+		MicroService a = register("a");
+		bus.subscribeBroadcast(Numbered.class, a);
+		bus.subscribeEvent(Job.class, a);
+		bus.sendBroadcast(new Numbered(0));
+		Job job = new Job(1);
+		bus.sendEvent(job);
+		assertQuiescent(false);
+		assertEquals(2, drain(a).size());
+		assertQuiescent(true);
+		bus.complete(job, 1);
+		assertQuiescent(true);
+	}
+
+	@Test
+	void discardedStaleAndCancelledMessagesAreSettled() throws InterruptedException {
+		bus.trackQuiescence();
+		MicroService a = register("a"), b = register("b");
+		bus.subscribeBroadcast(Numbered.class, a);
+		bus.subscribeEvent(Job.class, b);
+
+		// dropped by a full queue
+		bus.configureMailbox(a, 1, OverflowPolicy.DROP_NEWEST);
+		bus.sendBroadcast(new Numbered(0));
+		bus.sendBroadcast(new Numbered(1));
+		assertQuiescent(false);
+		assertEquals(1, drain(a).size());
+		assertQuiescent(true);
+
+		// past its deadline when taken out of the queue
+		Future<Integer> stale = bus.sendEvent(new Job(2), 1, TimeUnit.MILLISECONDS);
+		Thread.sleep(10);
+		assertTrue(drain(b).isEmpty());
+		assertThrows(EventExpiredException.class, stale::get);
+		assertQuiescent(true);
+
+		// cancelled while waiting
+		Future<Integer> cancelled = bus.sendEvent(new Job(3));
+		assertQuiescent(false);
+		assertTrue(cancelled.cancel());
+		assertQuiescent(true);
+
+		// left in the queue of a micro-service that unregisters
+		bus.sendBroadcast(new Numbered(4));
+		bus.sendEvent(new Job(5));
+		assertQuiescent(false);
+		bus.unregister(a);
+		bus.unregister(b);
+		assertQuiescent(true);
+	}
+
+	@Test
+	void cancellingAFutureTakesItsEventOutOfTheQueue() {
+		MicroService a = register("a");
+		bus.subscribeEvent(Job.class, a);
+		bus.configureMailbox(a, 1, OverflowPolicy.DROP_NEWEST);
+		Future<Integer> cancelled = bus.sendEvent(new Job(1));
+		assertTrue(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		// the only slot of the queue is free again, the next event is not dropped
+		Job kept = new Job(2);
+		Future<Integer> future = bus.sendEvent(kept);
+		assertFalse(future.isDone());
+		// the handler never sees the cancelled event
+		assertEquals(Arrays.asList(kept), drain(a));
+		bus.complete(kept, 2);
+		assertEquals(2, future.get().intValue());
+	}
+
+	@Test
+	void eventPastItsDeadlineIsSkippedWhenAwaited() throws InterruptedException {
+		MicroService a = register("a");
+		bus.subscribeEvent(Job.class, a);
+		bus.subscribeBroadcast(Numbered.class, a);
+		Future<Integer> late = bus.sendEvent(new Job(1), 1, TimeUnit.MILLISECONDS);
+		Thread.sleep(10);
+		bus.sendBroadcast(new Numbered(2));
+		List<Message> batch = new ArrayList<>();
+		assertEquals(1, bus.awaitMessages(a, batch, Integer.MAX_VALUE));
+		assertEquals(2, ((Numbered) batch.get(0)).number);
+		bus.messagesHandled(a, batch);
+		assertThrows(EventExpiredException.class, late::get);
+		assertEquals(0, bus.getPendingFuturesCount());
+	}
+
+	@Test
+	void eventsWaitingWhenTheHandlerUnregistersFail() {
+		MicroService a = register("a");
+		bus.subscribeEvent(Job.class, a);
+		Future<Integer> future = bus.sendEvent(new Job(1));
+		bus.unregister(a);
+		assertThrows(EventExpiredException.class, future::get);
+	}
+
+	@Test
+	void highWaterMarksAreKeptAfterUnregister() {
+		MicroService a = register("a");
+		bus.subscribeBroadcast(Numbered.class, a);
+		for (int i = 0; i < 5; i++)
+			bus.sendBroadcast(new Numbered(i));
+		bus.unregister(a);
+		assertEquals(5, bus.getMailboxHighWaterMarks().get(a).intValue());
+		bus.clearRetiredHighWaterMarks();
+		assertNull(bus.getMailboxHighWaterMarks().get(a));
+	}
+
+	@Test
+	void unregisterRemovesEverySubscriptionOfTheService() {
+		MicroService a = register("a"), b = register("b");
+		bus.subscribeEvent(Job.class, a);
+		bus.subscribeBroadcast(Numbered.class, a);
+		bus.subscribeBroadcast(Other.class, a);
+		bus.subscribeBroadcast(Numbered.class, b);
+		bus.unregister(a);
+
+		// registering again starts without the subscriptions of the previous registration
+		bus.register(a);
+		assertNull(bus.sendEvent(new Job(1)));
+		bus.sendBroadcast(new Other());
+		Numbered numbered = new Numbered(1);
+		bus.sendBroadcast(numbered);
+		assertTrue(drain(a).isEmpty());
+		assertEquals(Arrays.asList(numbered), drain(b));
+
+		// b keeps its own subscriptions until it unregisters too
+		bus.subscribeEvent(Job.class, b);
+		bus.unregister(b);
+		assertNull(bus.sendEvent(new Job(2)));
+	}
+
+	private static void assertIncreasing(List<Message> jobs) {
+		for (int i = 1; i < jobs.size(); i++)
+			assertTrue(((Job) jobs.get(i - 1)).number < ((Job) jobs.get(i)).number);
+	}
+}
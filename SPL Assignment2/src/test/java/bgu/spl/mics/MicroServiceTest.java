@@ -0,0 +1,260 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MicroServiceTest {
+
+    private static class Job implements Event<Integer> {
+    }
+
+    private static class Stop implements Broadcast {
+    }
+
+    private static class Numbered implements Broadcast {
+        final int number;
+
+        Numbered(int number) {
+            this.number = number;
+        }
+    }
+
+    private static class Urgent implements Broadcast, ControlMessage {
+    }
+
+    /**
+     * Subscribes to {@link Numbered} (unless told not to), {@link Urgent}, {@link Job} and
+     * {@link Stop}, then waits for {@link #go} so that the messages sent
+     * meanwhile are all taken in its first batch. Records what it handled.
+     */
+    private static class Recorder extends MicroService {
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Object> handled = Collections.synchronizedList(new ArrayList<>());
+        volatile Runnable onFirstMessage = () -> { };
+        volatile boolean numbered = true;
+
+        Recorder(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void initialize() {
+            if (numbered)
+                subscribeBroadcast(Numbered.class, numbered -> record(numbered.number));
+            subscribeBroadcast(Urgent.class, urgent -> record("urgent"));
+            subscribeEvent(Job.class, job -> {
+                record("job");
+                complete(job, 1);
+            });
+            subscribeBroadcast(Stop.class, stop -> terminate());
+            subscribed.countDown();
+            await(go);
+        }
+
+        private void record(Object message) {
+            if (handled.isEmpty())
+                onFirstMessage.run();
+            handled.add(message);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Thread start(Recorder recorder) {
+        Thread thread = new Thread(recorder);
+        thread.start();
+        await(recorder.subscribed);
+        return thread;
+    }
+
+    private static void stop(Thread thread) throws InterruptedException {
+        MessageBusImpl.getInstance().sendBroadcast(new Stop());
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    private final CountDownLatch handlerReady = new CountDownLatch(1);
+    private Thread handler;
+
+    /**
+     * Starts a micro-service completing every {@link Job} with 42, until a {@link Stop}.
+     */
+    private void startHandler() {
+        handler = new Thread(new MicroService("handler") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(Job.class, job -> complete(job, 42));
+                subscribeBroadcast(Stop.class, stop -> terminate());
+                handlerReady.countDown();
+            }
+        });
+        handler.start();
+    }
+
+    @AfterEach
+    void stopHandler() throws InterruptedException {
+        if (handler == null)
+            return;
+        MessageBusImpl.getInstance().sendBroadcast(new Stop());
+        handler.join(5000);
+        assertFalse(handler.isAlive());
+    }
+
+    @Test
+    void whenResolvedRunsOnTheEventLoopOfTheWaitingService() throws InterruptedException {
+        startHandler();
+        AtomicReference<Thread> calledBy = new AtomicReference<>();
+        AtomicReference<Integer> result = new AtomicReference<>();
+        Thread requester = new Thread(new MicroService("requester") {
+            @Override
+            protected void initialize() {
+                try {
+                    handlerReady.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                whenResolved(sendEvent(new Job()), value -> {
+                    calledBy.set(Thread.currentThread());
+                    result.set(value);
+                    terminate();
+                });
+            }
+        });
+        requester.start();
+        requester.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(requester.isAlive());
+        assertSame(requester, calledBy.get());
+        assertEquals(42, result.get().intValue());
+    }
+
+    @Test
+    void whenResolvedReportsFailuresOnTheEventLoop() throws InterruptedException {
+        AtomicReference<Thread> calledBy = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch waiting = new CountDownLatch(1);
+        Future<Integer> future = new Future<>();
+        Thread requester = new Thread(new MicroService("requester") {
+            @Override
+            protected void initialize() {
+                whenResolved(future, value -> fail("the future was cancelled"), cause -> {
+                    calledBy.set(Thread.currentThread());
+                    failure.set(cause);
+                    terminate();
+                });
+                waiting.countDown();
+            }
+        });
+        requester.start();
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        // cancelled by this thread, the callback still runs on the requester's
+        future.cancel();
+        requester.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(requester.isAlive());
+        assertSame(requester, calledBy.get());
+        assertTrue(failure.get() instanceof CancellationException);
+    }
+
+    @Test
+    void controlMessageOvertakesTheRestOfTheBatch() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Recorder recorder = new Recorder("recorder");
+        // sent while the first message of the batch is handled
+        recorder.onFirstMessage = () -> bus.sendBroadcast(new Urgent());
+        Thread thread = start(recorder);
+        bus.sendBroadcastBatch(Arrays.asList(new Numbered(0), new Numbered(1), new Numbered(2), new Numbered(3)));
+        recorder.go.countDown();
+        stop(thread);
+        assertEquals(Arrays.asList(0, "urgent", 1, 2, 3), recorder.handled);
+    }
+
+    @Test
+    void deadlineIsCheckedRightBeforeTheCallback() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Recorder recorder = new Recorder("recorder");
+        // the event is still on time when the batch is taken, not once its turn comes
+        recorder.onFirstMessage = () -> sleep(100);
+        Thread thread = start(recorder);
+        bus.sendBroadcast(new Numbered(0));
+        Future<Integer> late = bus.sendEvent(new Job(), 50, TimeUnit.MILLISECONDS);
+        recorder.go.countDown();
+        assertThrows(EventExpiredException.class, late::get);
+        stop(thread);
+        assertEquals(Arrays.asList(0), recorder.handled);
+    }
+
+    @Test
+    void eventsLeftInTheBatchWhenTerminatingFail() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Recorder recorder = new Recorder("recorder");
+        Thread thread = start(recorder);
+        // taken in one batch, the job is out of the queue when the service terminates
+        bus.sendBroadcast(new Stop());
+        Future<Integer> job = bus.sendEvent(new Job());
+        recorder.go.countDown();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertTrue(job.isDone());
+        assertThrows(EventExpiredException.class, job::get);
+        assertTrue(recorder.handled.isEmpty());
+    }
+
+    @Test
+    void leastLoadedCountsTheRestOfTheBatch() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        bus.setDispatchMode(Job.class, DispatchMode.LEAST_LOADED);
+        try {
+            Recorder busy = new Recorder("busy"), idle = new Recorder("idle");
+            idle.numbered = false;
+            CountDownLatch inBatch = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            busy.onFirstMessage = () -> {
+                inBatch.countDown();
+                await(release);
+            };
+            Thread busyThread = start(busy);
+            Thread idleThread = start(idle);
+            bus.sendBroadcastBatch(Arrays.asList(new Numbered(0), new Numbered(1), new Numbered(2), new Numbered(3)));
+            // goes to idle, whose queue is empty
+            bus.sendEvent(new Job());
+            busy.go.countDown();
+            await(inBatch);
+            // the queue of busy is empty, but 3 messages of its batch are left against 1 waiting for idle
+            Future<Integer> balanced = bus.sendEvent(new Job());
+            release.countDown();
+            idle.go.countDown();
+            assertEquals(1, balanced.get().intValue());
+            stop(busyThread);
+            stop(idleThread);
+            assertEquals(0, Collections.frequency(busy.handled, "job"));
+            assertEquals(2, Collections.frequency(idle.handled, "job"));
+        } finally {
+            bus.setDispatchMode(Job.class, DispatchMode.ROUND_ROBIN);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class RingBufferMailboxTest {
+
+    private static final class Numbered implements Message {
+        final int producer;
+        final int number;
+
+        Numbered(int producer, int number) {
+            this.producer = producer;
+            this.number = number;
+        }
+    }
+
+    private static final class Urgent implements Message {
+    }
+
+    private static RingBufferMailbox ring(int capacity, OverflowPolicy policy) {
+        return new RingBufferMailbox(capacity, policy, WaitStrategy.BLOCKING);
+    }
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        RingBufferMailbox mailbox = ring(5, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 10; i++)
+            mailbox.put(new Numbered(0, i));
+        assertEquals(8, mailbox.size());
+        assertThrows(IllegalArgumentException.class, () -> mailbox.configure(5, OverflowPolicy.BLOCK));
+        RingBufferMailbox single = ring(1, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 3; i++)
+            single.put(new Numbered(0, i));
+        assertEquals(2, single.size());
+        assertThrows(IllegalArgumentException.class, () -> ring(8, OverflowPolicy.DROP_OLDEST));
+        assertThrows(IllegalArgumentException.class, () -> ring(8, OverflowPolicy.COALESCE));
+    }
+
+    @Test
+    void wrapsAroundInOrder() throws InterruptedException {
+        RingBufferMailbox mailbox = ring(8, OverflowPolicy.BLOCK);
+        int next = 0;
+        int expected = 0;
+        // 5 messages per round never line up with the 8 slots, every slot is reused at every offset
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 5; i++)
+                mailbox.put(new Numbered(0, next++));
+            for (int i = 0; i < 5; i++)
+                assertEquals(expected++, ((Numbered) mailbox.take()).number);
+            assertEquals(0, mailbox.size());
+        }
+        assertEquals(5, mailbox.highWaterMark());
+    }
+
+    @Test
+    void producersKeepTheirOrderAndNothingIsLostAtCapacity8() throws InterruptedException {
+        RingBufferMailbox mailbox = ring(8, OverflowPolicy.BLOCK);
+        int producers = 4, perProducer = 50_000;
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++)
+                    mailbox.put(new Numbered(producer, i));
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        int[] next = new int[producers];
+        for (int received = 0; received < producers * perProducer; received++) {
+            Numbered message = (Numbered) mailbox.take();
+            assertEquals(next[message.producer]++, message.number);
+        }
+        for (Thread thread : threads)
+            thread.join();
+        for (int count : next)
+            assertEquals(perProducer, count);
+        assertEquals(0, mailbox.size());
+        assertTrue(mailbox.highWaterMark() <= 8);
+    }
+
+    @Test
+    void blockingSenderWaitsForAFreeSlot() throws InterruptedException {
+        RingBufferMailbox mailbox = ring(2, OverflowPolicy.BLOCK);
+        mailbox.put(new Numbered(0, 0));
+        mailbox.put(new Numbered(0, 1));
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            mailbox.put(new Numbered(0, 2));
+            sent.countDown();
+        });
+        sender.start();
+        assertFalse(sent.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(2, mailbox.size());
+        assertEquals(0, ((Numbered) mailbox.take()).number);
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(1, ((Numbered) mailbox.take()).number);
+        assertEquals(2, ((Numbered) mailbox.take()).number);
+        sender.join();
+    }
+
+    @Test
+    void closingReleasesABlockedSender() throws InterruptedException {
+        RingBufferMailbox mailbox = ring(2, OverflowPolicy.BLOCK);
+        mailbox.put(new Numbered(0, 0));
+        mailbox.put(new Numbered(0, 1));
+        Thread sender = new Thread(() -> mailbox.put(new Numbered(0, 2)));
+        sender.start();
+        mailbox.close();
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+    }
+
+    @Test
+    void dropNewestKeepsTheOldestMessages() throws InterruptedException {
+        RingBufferMailbox mailbox = ring(4, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 6; i++)
+            mailbox.put(new Numbered(0, i));
+        assertEquals(4, mailbox.size());
+        for (int i = 0; i < 4; i++)
+            assertEquals(i, ((Numbered) mailbox.take()).number);
+        assertEquals(0, mailbox.size());
+        // the dropped messages left no trace in the ring
+        mailbox.put(new Numbered(0, 6));
+        assertEquals(6, ((Numbered) mailbox.take()).number);
+    }
+
+    @Test
+    void droppedAndLeftOverMessagesAreReportedAsDiscarded() {
+        RingBufferMailbox mailbox = ring(2, OverflowPolicy.DROP_NEWEST);
+        List<Message> discarded = new ArrayList<>();
+        mailbox.setDiscardListener(discarded::add);
+        Numbered first = new Numbered(0, 0), second = new Numbered(0, 1), dropped = new Numbered(0, 2);
+        Urgent urgent = new Urgent();
+        mailbox.put(first);
+        mailbox.put(second);
+        mailbox.put(dropped);
+        mailbox.putControl(urgent);
+        assertEquals(Arrays.asList(dropped), discarded);
+
+        mailbox.close();
+        assertEquals(Arrays.asList(dropped, urgent, first, second), discarded);
+        assertEquals(0, mailbox.size());
+        Numbered late = new Numbered(0, 3);
+        Urgent lateUrgent = new Urgent();
+        mailbox.put(late);
+        mailbox.putControl(lateUrgent);
+        assertEquals(Arrays.asList(dropped, urgent, first, second, late, lateUrgent), discarded);
+    }
+
+    @Test
+    void everyMessageSentWhileClosingIsTakenOrDiscarded() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            RingBufferMailbox mailbox = ring(8, OverflowPolicy.BLOCK);
+            AtomicInteger discarded = new AtomicInteger();
+            mailbox.setDiscardListener(message -> discarded.incrementAndGet());
+            int producers = 4, perProducer = 1000;
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < perProducer; i++)
+                        mailbox.put(new Numbered(producer, i));
+                }));
+            }
+            threads.forEach(Thread::start);
+            int taken = 0;
+            for (; taken < round * 20; taken++)
+                mailbox.take();
+            mailbox.close();
+            for (Thread thread : threads)
+                thread.join(5000);
+            assertEquals(producers * perProducer, taken + discarded.get());
+            assertEquals(0, mailbox.size());
+        }
+    }
+
+    @Test
+    void controlMessagesAreTakenFirst() throws InterruptedException {
+        RingBufferMailbox mailbox = ring(2, OverflowPolicy.DROP_NEWEST);
+        mailbox.put(new Numbered(0, 0));
+        mailbox.put(new Numbered(0, 1));
+        Urgent urgent = new Urgent();
+        // the control lane is not bounded by the capacity of the ring
+        mailbox.putControl(urgent);
+        assertEquals(3, mailbox.size());
+        List<Message> drained = new ArrayList<>();
+        assertEquals(3, mailbox.drainAvailable(drained, 10));
+        assertSame(urgent, drained.get(0));
+        assertEquals(0, ((Numbered) drained.get(1)).number);
+        assertEquals(1, ((Numbered) drained.get(2)).number);
+    }
+
+    @Test
+    void noWakeUpIsMissedWhenBlocking() throws InterruptedException {
+        pingPong(WaitStrategy.BLOCKING);
+    }
+
+    @Test
+    void noWakeUpIsMissedWhenSpinningThenParking() throws InterruptedException {
+        pingPong(WaitStrategy.SPIN_THEN_PARK);
+    }
+
+    @Test
+    void noWakeUpIsMissedWhenYielding() throws InterruptedException {
+        pingPong(WaitStrategy.YIELD);
+    }
+
+    /**
+     * Bounces a message between two threads through two mailboxes, so every
+     * exchange races a sender against an owner about to wait. A single missed
+     * wake-up stalls both threads.
+     */
+    private static void pingPong(WaitStrategy strategy) throws InterruptedException {
+        RingBufferMailbox ping = new RingBufferMailbox(8, OverflowPolicy.BLOCK, strategy);
+        RingBufferMailbox pong = new RingBufferMailbox(8, OverflowPolicy.BLOCK, strategy);
+        int rounds = 20_000;
+        Thread echo = new Thread(() -> {
+            try {
+                for (int i = 0; i < rounds; i++)
+                    pong.put(ping.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        echo.setDaemon(true);
+        echo.start();
+        AtomicInteger returned = new AtomicInteger();
+        Thread player = new Thread(() -> {
+            try {
+                for (int i = 0; i < rounds; i++) {
+                    ping.put(new Numbered(0, i));
+                    if (((Numbered) pong.take()).number == i)
+                        returned.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        player.setDaemon(true);
+        player.start();
+        player.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(player.isAlive(), "a wake-up was missed with " + strategy);
+        echo.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(echo.isAlive());
+        assertEquals(rounds, returned.get());
+    }
+}
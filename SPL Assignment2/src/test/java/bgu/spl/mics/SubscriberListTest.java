@@ -0,0 +1,122 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+class SubscriberListTest {
+
+	private static MicroService service(String name) {
+		return new MicroService(name) {
+			@Override
+			protected void initialize() {
+			}
+		};
+	}
+
+	@Test
+	void addIsIdempotentAndRemoveKeepsTheOrder() {
+		SubscriberList subscribers = new SubscriberList();
+		MicroService a = service("a"), b = service("b"), c = service("c");
+		assertTrue(subscribers.add(a));
+		assertTrue(subscribers.add(b));
+		assertTrue(subscribers.add(c));
+		assertFalse(subscribers.add(b));
+		assertArrayEquals(new MicroService[] { a, b, c }, subscribers.snapshot());
+		assertTrue(subscribers.remove(b));
+		assertFalse(subscribers.remove(b));
+		assertArrayEquals(new MicroService[] { a, c }, subscribers.snapshot());
+		assertTrue(subscribers.remove(a));
+		assertTrue(subscribers.remove(c));
+		assertEquals(0, subscribers.snapshot().length);
+	}
+
+	@Test
+	void snapshotIsNotChangedByLaterUpdates() {
+		SubscriberList subscribers = new SubscriberList();
+		MicroService a = service("a"), b = service("b");
+		subscribers.add(a);
+		MicroService[] before = subscribers.snapshot();
+		subscribers.add(b);
+		subscribers.remove(a);
+		assertArrayEquals(new MicroService[] { a }, before);
+		assertArrayEquals(new MicroService[] { b }, subscribers.snapshot());
+	}
+
+	@Test
+	void addingAgainReplacesTheFilter() {
+		SubscriberList subscribers = new SubscriberList();
+		MicroService a = service("a"), b = service("b");
+		Predicate<Object> none = message -> false;
+		subscribers.add(a);
+		assertTrue(subscribers.add(b, none));
+		Message message = new Message() {
+		};
+		assertTrue(subscribers.members().accepts(0, message));
+		assertFalse(subscribers.members().accepts(1, message));
+		assertFalse(subscribers.add(b, none));
+		assertFalse(subscribers.add(b, null));
+		assertTrue(subscribers.members().accepts(1, message));
+		// removing a subscriber keeps the filters aligned with the services
+		subscribers.add(b, none);
+		subscribers.remove(a);
+		assertFalse(subscribers.members().accepts(0, message));
+	}
+
+	@Test
+	void concurrentAddsAndRemovesAreNotLost() throws InterruptedException {
+		SubscriberList subscribers = new SubscriberList();
+		int threads = 8, perThread = 200;
+		List<MicroService> kept = new ArrayList<>();
+		List<Thread> workers = new ArrayList<>();
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < threads; t++) {
+			List<MicroService> mine = new ArrayList<>();
+			for (int i = 0; i < perThread; i++)
+				mine.add(service("s" + t + "-" + i));
+			// every thread removes its odd services again
+			for (int i = 0; i < perThread; i += 2)
+				kept.add(mine.get(i));
+			workers.add(new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perThread; i++)
+					assertTrue(subscribers.add(mine.get(i)));
+				for (int i = 1; i < perThread; i += 2)
+					assertTrue(subscribers.remove(mine.get(i)));
+			}));
+		}
+		workers.forEach(Thread::start);
+		start.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		MicroService[] snapshot = subscribers.snapshot();
+		assertEquals(kept.size(), snapshot.length);
+		assertEquals(new HashSet<>(kept), new HashSet<>(Arrays.asList(snapshot)));
+	}
+
+	@Test
+	void roundRobinVisitsEverySubscriber() {
+		SubscriberList subscribers = new SubscriberList();
+		MicroService a = service("a"), b = service("b"), c = service("c");
+		subscribers.add(a);
+		subscribers.add(b);
+		subscribers.add(c);
+		Set<MicroService> seen = new HashSet<>();
+		for (int i = 0; i < 3; i++)
+			seen.add(subscribers.next());
+		assertEquals(3, seen.size());
+		assertNull(new SubscriberList().next());
+	}
+}
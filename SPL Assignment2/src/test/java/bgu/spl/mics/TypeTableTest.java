@@ -0,0 +1,91 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TypeTableTest {
+
+	private interface Tagged extends Message {
+	}
+
+	private interface Urgent extends Tagged {
+	}
+
+	private static class Base implements Broadcast {
+	}
+
+	private static class Middle extends Base implements Urgent {
+	}
+
+	private static class Leaf extends Middle {
+	}
+
+	private static class Unrelated implements Broadcast {
+	}
+
+	@Test
+	void typeResolvesToItsOwnValue() {
+		TypeTable<String> table = new TypeTable<>();
+		table.put(Base.class, "base");
+		table.put(Leaf.class, "leaf");
+		assertEquals("base", table.get(Base.class));
+		assertEquals("leaf", table.get(Leaf.class));
+		assertNull(table.get(Unrelated.class));
+	}
+
+	@Test
+	void subtypeResolvesToItsNearestSuperclass() {
+		TypeTable<String> table = new TypeTable<>();
+		table.put(Base.class, "base");
+		assertEquals("base", table.get(Leaf.class));
+		table.put(Middle.class, "middle");
+		assertEquals("middle", table.get(Leaf.class));
+		assertEquals("base", table.get(Base.class));
+	}
+
+	@Test
+	void superclassesAreMatchedBeforeInterfaces() {
+		TypeTable<String> table = new TypeTable<>();
+		table.put(Tagged.class, "tagged");
+		assertEquals("tagged", table.get(Leaf.class));
+		table.put(Urgent.class, "urgent");
+		// the nearer interface, breadth-first
+		assertEquals("urgent", table.get(Leaf.class));
+		table.put(Base.class, "base");
+		assertEquals("base", table.get(Leaf.class));
+		assertEquals("base", table.get(Middle.class));
+	}
+
+	@Test
+	void valueAddedLaterReplacesACachedResolution() {
+		TypeTable<String> table = new TypeTable<>();
+		// caches that Leaf resolves to nothing
+		assertNull(table.get(Leaf.class));
+		table.put(Base.class, "base");
+		assertEquals("base", table.get(Leaf.class));
+		table.put(Base.class, "replaced");
+		assertEquals("replaced", table.get(Leaf.class));
+	}
+
+	@Test
+	void computeIfAbsentOnlyAddsOnce() {
+		TypeTable<String> table = new TypeTable<>();
+		AtomicInteger created = new AtomicInteger();
+		assertEquals("1", table.computeIfAbsent(Base.class, () -> String.valueOf(created.incrementAndGet())));
+		assertEquals("1", table.computeIfAbsent(Base.class, () -> String.valueOf(created.incrementAndGet())));
+		assertEquals(1, created.get());
+		// the value of a supertype does not count as the value of the type itself
+		assertEquals("2", table.computeIfAbsent(Leaf.class, () -> String.valueOf(created.incrementAndGet())));
+	}
+
+	@Test
+	void lineageListsSuperclassesThenInterfaces() {
+		assertArrayEquals(new Class<?>[] { Leaf.class, Middle.class, Base.class, Urgent.class, Broadcast.class, Tagged.class, Message.class },
+				MessageTypes.lineageOf(Leaf.class));
+		assertEquals(MessageTypes.idOf(Leaf.class), MessageTypes.idOf(Leaf.class));
+		assertNotEquals(MessageTypes.idOf(Leaf.class), MessageTypes.idOf(Middle.class));
+	}
+}
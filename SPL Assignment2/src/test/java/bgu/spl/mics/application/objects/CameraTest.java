@@ -0,0 +1,21 @@
+package bgu.spl.mics.application.objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class CameraTest {
+
+    @Test
+    void scheduledAtDetectionSendingAndTerminationTicks() {
+        Camera camera = new Camera(1, 2, Arrays.asList(new StampedDetectedObjects(1), new StampedDetectedObjects(4)), 10);
+        for (int tick = 0; tick <= 12; tick++) {
+            boolean expected = tick == 1 || tick == 3 || tick == 4 || tick == 6 || tick == 10;
+            assertEquals(expected, camera.isScheduledAt(tick), "tick " + tick);
+        }
+        assertFalse(camera.isScheduledAt(-1));
+        assertEquals(Arrays.asList(1, 3, 4, 6, 10), camera.getScheduledTicks());
+    }
+}
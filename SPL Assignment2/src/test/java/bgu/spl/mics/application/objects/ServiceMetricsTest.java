@@ -0,0 +1,69 @@
+package bgu.spl.mics.application.objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.function.Predicate;
+
+import bgu.spl.mics.MicroService;
+import org.junit.jupiter.api.Test;
+
+class ServiceMetricsTest {
+
+    private static MicroService service(String name) {
+        return new MicroService(name) {
+            @Override
+            protected void initialize() {
+            }
+        };
+    }
+
+    @Test
+    void lagCountsOnlyTheTicksDeliveredAndNotProcessed() {
+        ServiceMetrics metrics = ServiceMetrics.register(service("even ticks"));
+        Predicate<Integer> filter = metrics.countingDelivered(tick -> tick % 2 == 0, Integer::intValue);
+        // the TimeService skipped ticks 1 to 3 and is at tick 10, ticks 4, 6 and 8 were delivered
+        ServiceMetrics.setCurrentTick(10);
+        for (int tick = 4; tick <= 9; tick++)
+            filter.test(tick);
+        assertEquals(3, metrics.getLag());
+
+        metrics.tickProcessed(4, 0);
+        assertEquals(2, metrics.getLag());
+        metrics.tickProcessed(6, 0);
+        metrics.tickProcessed(8, 0);
+        assertEquals(0, metrics.getLag());
+        assertEquals(8, metrics.getLastTick());
+        assertEquals(2, metrics.getMaxLag());
+    }
+
+    @Test
+    void discardedTicksStopCountingOnceALaterTickIsProcessed() {
+        ServiceMetrics metrics = ServiceMetrics.register(service("lossy"));
+        Predicate<Integer> filter = metrics.countingDelivered(tick -> true, Integer::intValue);
+        for (int tick = 1; tick <= 4; tick++)
+            filter.test(tick);
+        // ticks 2 and 3 were dropped by the full queue of the service
+        metrics.tickProcessed(1, 0);
+        assertEquals(3, metrics.getLag());
+        metrics.tickProcessed(4, 0);
+        assertEquals(0, metrics.getLag());
+
+        // a service further behind than the remembered ticks still counts the ticks it processes
+        for (int tick = 5; tick <= 5 + 2000; tick++)
+            filter.test(tick);
+        metrics.tickProcessed(5, 0);
+        assertEquals(2000, metrics.getLag());
+    }
+
+    @Test
+    void servicesWithTheSameNameHaveTheirOwnMetrics() {
+        MicroService first = service("twin"), second = service("twin");
+        ServiceMetrics metrics = ServiceMetrics.register(first);
+        assertSame(metrics, ServiceMetrics.register(first));
+        assertNotSame(metrics, ServiceMetrics.register(second));
+
+        metrics.<Integer>countingDelivered(tick -> true, Integer::intValue).test(1);
+        assertEquals(1, metrics.getLag());
+        assertEquals(0, ServiceMetrics.register(second).getLag());
+    }
+}
@@ -0,0 +1,52 @@
+package bgu.spl.mics.application.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.CooperativeExecutor;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.PoseEvent;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.objects.GPSIMU;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.WakeUpRegistry;
+import org.junit.jupiter.api.Test;
+
+class PoseServiceTest {
+
+    @Test
+    void posesOfSkippedTicksAreSentInOrder() {
+        // forget the wake-up ticks left by other tests
+        WakeUpRegistry.getInstance().nextAfter(Integer.MAX_VALUE);
+        List<Integer> poseTimes = new ArrayList<>();
+        CooperativeExecutor executor = new CooperativeExecutor();
+        TimeService time = new TimeService(1000, TimeUnit.MILLISECONDS, 8, false);
+        time.setSkipIdleTicks(true);
+        executor.add(time);
+        GPSIMU gpsimu = new GPSIMU(0);
+        gpsimu.getPoseList().clear();
+        for (int tick = 1; tick <= 8; tick++)
+            gpsimu.getPoseList().add(new Pose(tick, 0, 0, tick));
+        executor.add(new PoseService(gpsimu));
+        executor.add(new MicroService("pose listener") {
+            @Override
+            protected void initialize() {
+                WakeUpRegistry.getInstance().wakeUpAt(3);
+                WakeUpRegistry.getInstance().wakeUpAt(6);
+                subscribeEvent(PoseEvent.class, pose -> {
+                    poseTimes.add(pose.getPose().getTime());
+                    complete(pose, true);
+                });
+                subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+            }
+        });
+        // the pose service keeps running until a crash, it is unregistered at the end
+        executor.run();
+        // only ticks 3, 6 and 8 are sent, every tick still gets its pose
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), poseTimes);
+    }
+}
@@ -0,0 +1,123 @@
+package bgu.spl.mics.application.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.CooperativeExecutor;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.WakeUpRegistry;
+import org.junit.jupiter.api.Test;
+
+class TimeServiceTest {
+
+    private static final class Work implements Event<Boolean> {
+        final int tick;
+
+        Work(int tick) {
+            this.tick = tick;
+        }
+    }
+
+    private static final class Done implements Broadcast {
+        final int tick;
+
+        Done(int tick) {
+            this.tick = tick;
+        }
+    }
+
+    private static Thread start(MicroService m) {
+        Thread thread = new Thread(m);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    void virtualTimeSendsTheNextTickOnceTheMessagesItCausedWereHandled() throws InterruptedException {
+        // constructed first, it tracks quiescence before any service registers
+        TimeService time = new TimeService(1000, 4, 4, true);
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch subscribed = new CountDownLatch(2);
+        // every tick causes a chain of an event and a broadcast, handled by another service
+        Thread ticker = start(new MicroService("ticker") {
+            @Override
+            protected void initialize() {
+                subscribeBroadcast(TickBroadcast.class, tick -> {
+                    log.add("tick " + tick.getTick());
+                    sendEvent(new Work(tick.getTick()));
+                });
+                subscribeBroadcast(Done.class, done -> log.add("done " + done.tick));
+                subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+                subscribed.countDown();
+            }
+        });
+        Thread worker = start(new MicroService("worker") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(Work.class, work -> {
+                    try {
+                        // much slower than sending a tick, but the tick time is never waited
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    complete(work, true);
+                    sendBroadcast(new Done(work.tick));
+                });
+                subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+                subscribed.countDown();
+            }
+        });
+        assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        // starts the tick thread, the time service itself has no message to handle
+        time.initialize();
+        ticker.join(5000);
+        worker.join(5000);
+        assertFalse(ticker.isAlive());
+        assertFalse(worker.isAlive());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        assertEquals(Arrays.asList("tick 1", "done 1", "tick 2", "done 2", "tick 3", "done 3", "tick 4", "done 4"), log);
+    }
+
+    @Test
+    void skippedTicksStillAddToTheSystemRuntime() {
+        // forget the wake-up ticks left by other tests
+        WakeUpRegistry.getInstance().nextAfter(Integer.MAX_VALUE);
+        List<Integer> ticks = new ArrayList<>();
+        CooperativeExecutor executor = new CooperativeExecutor();
+        TimeService time = new TimeService(1000, TimeUnit.MILLISECONDS, 10, false);
+        time.setSkipIdleTicks(true);
+        executor.add(time);
+        executor.add(new MicroService("listener") {
+            @Override
+            protected void initialize() {
+                WakeUpRegistry.getInstance().wakeUpAt(3);
+                subscribeBroadcast(TickBroadcast.class, tick -> {
+                    ticks.add(tick.getTick());
+                    // registered while handling tick 3, before the next tick is decided
+                    if (tick.getTick() == 3)
+                        WakeUpRegistry.getInstance().wakeUpAt(7);
+                });
+                subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+            }
+        });
+        int runtime = StatisticalFolder.getInstance().getSystemRuntine();
+        assertTrue(executor.run());
+        // the last tick of the duration is always sent
+        assertEquals(Arrays.asList(3, 7, 10), ticks);
+        assertEquals(10, StatisticalFolder.getInstance().getSystemRuntine() - runtime);
+    }
+}
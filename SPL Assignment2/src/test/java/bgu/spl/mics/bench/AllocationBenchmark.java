@@ -0,0 +1,109 @@
+package bgu.spl.mics.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.services.TimeService;
+
+/**
+ * Measures the steady-state allocation rate of the message-bus: the bytes
+ * allocated per message by the sending thread and by the receiving thread,
+ * for broadcasts, batches of broadcasts, events and the ticks of an
+ * externally driven {@link TimeService}. Relies on the HotSpot
+ * {@code com.sun.management.ThreadMXBean}.
+ * Run with {@code java bgu.spl.mics.bench.AllocationBenchmark [messages]}.
+ */
+public class AllocationBenchmark {
+
+	private static class Ping implements Broadcast {
+	}
+
+	private static class Job implements Event<Integer> {
+	}
+
+	private interface Sender {
+		void send(MessageBusImpl bus, int count);
+	}
+
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws InterruptedException {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		Ping ping = new Ping();
+		List<Ping> pings = Collections.nCopies(64, ping);
+		Job job = new Job();
+		// the first pass warms up the JIT and grows the queues to their steady size
+		for (int pass = 0; pass < 2; pass++) {
+			boolean print = pass == 1;
+			measure("broadcast", messages, print, (bus, count) -> {
+				for (int i = 0; i < count; i++)
+					bus.sendBroadcast(ping);
+			});
+			measure("broadcast batch of 64", messages, print, (bus, count) -> {
+				for (int i = 0; i < count; i += pings.size())
+					bus.sendBroadcastBatch(pings);
+			});
+			measure("event", messages, print, (bus, count) -> {
+				for (int i = 0; i < count; i++)
+					bus.sendEvent(job);
+			});
+			measure("tick", messages, print, (bus, count) -> {
+				TimeService time = new TimeService(0, TimeUnit.MILLISECONDS, count, false);
+				time.driveExternally();
+				for (int i = 0; i < count; i++)
+					time.advance();
+			});
+		}
+	}
+
+	/**
+	 * Sends {@code messages} messages to a single receiver, which takes them
+	 * in batches with a reused buffer and completes the events.
+	 */
+	private static void measure(String name, int messages, boolean print, Sender sender) throws InterruptedException {
+		MessageBusImpl bus = MessageBusImpl.getInstance();
+		MicroService receiver = Bench.service("receiver");
+		bus.register(receiver);
+		bus.subscribeBroadcast(Ping.class, receiver);
+		bus.subscribeEvent(Job.class, receiver);
+		bus.subscribeBroadcast(TickBroadcast.class, receiver);
+		long[] received = new long[1];
+		Thread consumer = new Thread(() -> {
+			List<Message> buffer = new ArrayList<>(MicroService.DEFAULT_BATCH_SIZE);
+			long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			try {
+				for (long taken = 0; taken < messages; taken += buffer.size()) {
+					buffer.clear();
+					bus.awaitMessages(receiver, buffer, MicroService.DEFAULT_BATCH_SIZE);
+					for (Message message : buffer) {
+						if (message instanceof Job)
+							bus.complete((Job) message, 0);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			received[0] = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+		});
+		consumer.start();
+		long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		sender.send(bus, messages);
+		long sent = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+		consumer.join();
+		bus.unregister(receiver);
+		bus.clearRetiredHighWaterMarks();
+		if (print)
+			System.out.printf("%-22s sender %,7.1f bytes per message, receiver %,7.1f bytes per message%n",
+					name, (double) sent / messages, (double) received[0] / messages);
+	}
+}
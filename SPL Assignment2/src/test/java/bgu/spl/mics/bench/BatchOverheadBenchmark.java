@@ -0,0 +1,112 @@
+package bgu.spl.mics.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+/**
+ * Compares the per-message cost of sending messages one by one with
+ * sending them with {@link MessageBusImpl#sendBroadcastBatch(List)} and
+ * {@link MessageBusImpl#sendEvents(List)}, for growing batch sizes. The
+ * queues are drained by the sending thread between rounds, so only the
+ * sending side is measured.
+ * Run with {@code java bgu.spl.mics.bench.BatchOverheadBenchmark [subscribers] [messages]}.
+ * Events all go to a single handler.
+ */
+public class BatchOverheadBenchmark {
+
+	private static class Ping implements Broadcast {
+	}
+
+	private static class Job implements Event<Integer> {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+		MessageBusImpl bus = MessageBusImpl.getInstance();
+		List<MicroService> services = new ArrayList<>();
+		for (int s = 0; s < subscribers; s++) {
+			MicroService m = Bench.service("subscriber " + s);
+			bus.register(m);
+			bus.subscribeBroadcast(Ping.class, m);
+			services.add(m);
+		}
+		// a single handler, so every queue holds a known number of messages
+		MicroService handler = Bench.service("handler");
+		bus.register(handler);
+		bus.subscribeEvent(Job.class, handler);
+		List<MicroService> handlers = new ArrayList<>();
+		handlers.add(handler);
+		// the first pass warms up the JIT
+		for (int pass = 0; pass < 2; pass++) {
+			for (int batchSize = 1; batchSize <= 256; batchSize *= 4) {
+				long broadcasts = measure(bus, services, messages, batchSize, true);
+				long events = measure(bus, handlers, messages, batchSize, false);
+				if (pass == 1)
+					System.out.printf("batch %3d: %,5d ns per broadcast, %,5d ns per event%n", batchSize, broadcasts, events);
+			}
+		}
+		services.forEach(bus::unregister);
+		bus.unregister(handler);
+	}
+
+	/**
+	 * @return the sending time per message, in nanoseconds.
+	 */
+	private static long measure(MessageBusImpl bus, List<MicroService> services, int messages, int batchSize, boolean broadcast)
+			throws InterruptedException {
+		List<Ping> pings = new ArrayList<>();
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < batchSize; i++) {
+			pings.add(new Ping());
+			jobs.add(new Job());
+		}
+		long elapsed = 0;
+		int rounds = messages / batchSize;
+		// drain every 4096 messages, the default queues are unbounded
+		int roundsPerDrain = Math.max(1, 4096 / batchSize);
+		for (int round = 0; round < rounds; round += roundsPerDrain) {
+			int count = Math.min(roundsPerDrain, rounds - round);
+			long start = System.nanoTime();
+			for (int r = 0; r < count; r++) {
+				if (batchSize == 1 && broadcast) {
+					bus.sendBroadcast(pings.get(0));
+				} else if (batchSize == 1) {
+					bus.sendEvent(jobs.get(0));
+				} else if (broadcast) {
+					bus.sendBroadcastBatch(pings);
+				} else {
+					bus.sendEvents(jobs);
+				}
+			}
+			elapsed += System.nanoTime() - start;
+			drain(bus, services, (long) count * batchSize);
+		}
+		return elapsed / ((long) rounds * batchSize);
+	}
+
+	/**
+	 * Takes {@code perService} messages out of the queue of every service,
+	 * and completes the events so their futures are not retained.
+	 */
+	private static void drain(MessageBusImpl bus, List<MicroService> services, long perService) throws InterruptedException {
+		List<Message> buffer = new ArrayList<>();
+		for (MicroService m : services) {
+			for (long taken = 0; taken < perService; taken += buffer.size()) {
+				buffer.clear();
+				bus.awaitMessages(m, buffer, 4096);
+				for (Message message : buffer) {
+					if (message instanceof Job)
+						bus.complete((Job) message, 0);
+				}
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package bgu.spl.mics.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import bgu.spl.mics.MicroService;
+
+/**
+ * Helpers shared by the benchmarks. The micro-services they create are never
+ * run, the benchmarks drive the message-bus directly.
+ */
+final class Bench {
+
+	private Bench() {
+	}
+
+	static MicroService service(String name) {
+		return new MicroService(name) {
+			@Override
+			protected void initialize() {
+			}
+		};
+	}
+
+	static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
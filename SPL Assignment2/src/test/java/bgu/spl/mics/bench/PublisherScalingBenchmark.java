@@ -0,0 +1,71 @@
+package bgu.spl.mics.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+/**
+ * Measures the broadcast throughput of the message-bus as the number of
+ * concurrent publishers grows, with every subscriber drained by its own thread.
+ * Run with {@code java bgu.spl.mics.bench.PublisherScalingBenchmark [subscribers] [messages per publisher]}.
+ */
+public class PublisherScalingBenchmark {
+
+	private static class Ping implements Broadcast {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+		// the first round warms up the JIT
+		run(1, subscribers, messages);
+		for (int publishers = 1; publishers <= 16; publishers *= 2) {
+			long nanos = run(publishers, subscribers, messages);
+			long sent = (long) publishers * messages;
+			System.out.printf("%2d publishers: %,12d broadcasts/s, %,6d ns per broadcast%n",
+					publishers, sent * 1_000_000_000L / nanos, nanos / sent);
+		}
+	}
+
+	private static long run(int publishers, int subscribers, int messages) throws InterruptedException {
+		MessageBusImpl bus = MessageBusImpl.getInstance();
+		long expected = (long) publishers * messages;
+		List<Thread> threads = new ArrayList<>();
+		List<MicroService> services = new ArrayList<>();
+		for (int s = 0; s < subscribers; s++) {
+			MicroService m = Bench.service("subscriber " + s);
+			bus.register(m);
+			bus.subscribeBroadcast(Ping.class, m);
+			services.add(m);
+			threads.add(new Thread(() -> {
+				try {
+					for (long i = 0; i < expected; i++)
+						bus.awaitMessage(m);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		Ping ping = new Ping();
+		for (int p = 0; p < publishers; p++) {
+			threads.add(new Thread(() -> {
+				Bench.await(start);
+				for (int i = 0; i < messages; i++)
+					bus.sendBroadcast(ping);
+			}));
+		}
+		threads.forEach(Thread::start);
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		long nanos = System.nanoTime() - begin;
+		services.forEach(bus::unregister);
+		return nanos;
+	}
+}
@@ -0,0 +1,76 @@
+package bgu.spl.mics.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+/**
+ * Measures the time it takes to unregister many micro-services, each
+ * subscribed to a few of the message types, in registration order, in
+ * reverse order and in random order.
+ * Run with {@code java bgu.spl.mics.bench.UnregisterBenchmark [services]}.
+ */
+public class UnregisterBenchmark {
+
+	private static class A implements Broadcast {
+	}
+
+	private static class B implements Broadcast {
+	}
+
+	private static class C implements Broadcast {
+	}
+
+	private static class D implements Event<Integer> {
+	}
+
+	private static class E implements Event<Integer> {
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		// the first pass warms up the JIT
+		for (int pass = 0; pass < 2; pass++) {
+			for (String order : new String[] { "registration", "reverse", "random" }) {
+				List<MicroService> services = registerAll(count);
+				if (order.equals("reverse"))
+					Collections.reverse(services);
+				else if (order.equals("random"))
+					Collections.shuffle(services);
+				long start = System.nanoTime();
+				services.forEach(MessageBusImpl.getInstance()::unregister);
+				long nanos = System.nanoTime() - start;
+				if (pass == 1)
+					System.out.printf("%,d services in %s order: %,d ms, %,d ns per unregister%n",
+							count, order, nanos / 1_000_000, nanos / count);
+			}
+		}
+		MessageBusImpl.getInstance().clearRetiredHighWaterMarks();
+	}
+
+	private static List<MicroService> registerAll(int count) {
+		MessageBusImpl bus = MessageBusImpl.getInstance();
+		List<MicroService> services = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			MicroService m = Bench.service("service " + i);
+			bus.register(m);
+			// every service subscribes to 3 of the 5 types
+			bus.subscribeBroadcast(A.class, m);
+			if (i % 2 == 0)
+				bus.subscribeBroadcast(B.class, m);
+			else
+				bus.subscribeBroadcast(C.class, m);
+			if (i % 3 == 0)
+				bus.subscribeEvent(D.class, m);
+			else
+				bus.subscribeEvent(E.class, m);
+			services.add(m);
+		}
+		return services;
+	}
+}